@@ -0,0 +1,65 @@
+package it.zwets.sms.scheduler;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+import org.flowable.engine.ProcessEngine;
+import org.flowable.engine.delegate.DelegateExecution;
+
+/**
+ * Minimal stand-ins for Flowable objects, so that the benchmarks can call
+ * into our code without a process engine or database.
+ *
+ * @author zwets
+ */
+public final class BenchmarkStubs {
+
+    private BenchmarkStubs() {
+    }
+
+    /**
+     * A ProcessEngine whose every method returns null (or zero/false).
+     * Good enough for the constructors that merely get the services.
+     * @return stub ProcessEngine
+     */
+    public static ProcessEngine processEngine() {
+        return (ProcessEngine) Proxy.newProxyInstance(
+                BenchmarkStubs.class.getClassLoader(),
+                new Class<?>[] { ProcessEngine.class },
+                (proxy, method, args) -> defaultValue(method.getReturnType()));
+    }
+
+    /**
+     * A DelegateExecution backed by a map of variables.  Supports the get, has
+     * and set variable methods and the id getters; the rest return null.
+     * @param id the execution and process instance ID
+     * @param vars the (mutable) variables map
+     * @return stub DelegateExecution
+     */
+    public static DelegateExecution delegateExecution(String id, Map<String,Object> vars) {
+        return (DelegateExecution) Proxy.newProxyInstance(
+                BenchmarkStubs.class.getClassLoader(),
+                new Class<?>[] { DelegateExecution.class },
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getId", "getProcessInstanceId" -> id;
+                    case "getVariable" -> vars.get((String) args[0]);
+                    case "hasVariable" -> vars.containsKey((String) args[0]);
+                    case "setVariable" -> vars.put((String) args[0], args[1]);
+                    case "getVariables" -> vars;
+                    default -> defaultValue(method.getReturnType());
+                });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return Boolean.FALSE;
+        }
+        else if (type == int.class) {
+            return Integer.valueOf(0);
+        }
+        else if (type == long.class) {
+            return Long.valueOf(0);
+        }
+        return null;
+    }
+}
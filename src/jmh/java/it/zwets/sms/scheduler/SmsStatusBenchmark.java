@@ -0,0 +1,55 @@
+package it.zwets.sms.scheduler;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.zwets.sms.scheduler.SmsSchedulerConfiguration.Constants;
+import it.zwets.sms.scheduler.SmsSchedulerService.SmsStatus;
+import it.zwets.sms.scheduler.store.SmsStatusStore;
+import it.zwets.sms.scheduler.util.DateHelper;
+
+/**
+ * Benchmarks the mapping of a status projection row to {@link SmsStatus},
+ * which is done for every row returned by the status queries.
+ *
+ * @author zwets
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SmsStatusBenchmark {
+
+    private SmsSchedulerService service;
+    private SmsStatusStore.Row row;
+
+    @Setup
+    public void setup() {
+        service = new SmsSchedulerService(BenchmarkStubs.processEngine(), null, null, null, null, null, new DateHelper(ZoneOffset.of("+03:00")), null);
+
+        Instant now = Instant.parse("2024-01-01T08:00:00.123Z");
+
+        row = new SmsStatusStore.Row("12345678-1234-1234-1234-123456789abc", "client", "batch", "key", "target",
+                Constants.SMS_STATUS_DELIVERED, now.plusSeconds(60), now.plusSeconds(3600).toString(),
+                now, now.plusSeconds(120), 1, "user");
+    }
+
+    @Benchmark
+    public SmsStatus rowToSmsStatus() {
+        return service.rowToSmsStatus(row);
+    }
+}
@@ -0,0 +1,100 @@
+package it.zwets.sms.scheduler.delegate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.flowable.engine.delegate.DelegateExecution;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.zwets.sms.scheduler.BenchmarkStubs;
+import it.zwets.sms.scheduler.SmsSchedulerConfiguration.Constants;
+import it.zwets.sms.scheduler.TargetBlockerService;
+import it.zwets.sms.scheduler.util.DueTimePlanner;
+import it.zwets.sms.scheduler.util.SchedulerCache;
+import it.zwets.sms.scheduler.util.SendRateShaper;
+import it.zwets.sms.scheduler.util.Slot;
+
+/**
+ * Benchmarks {@link TriageDelegate#execute(DelegateExecution)} on a first
+ * triage and on a retry, against a stub execution and a blocker service
+ * that never blocks, with and without the cache of parsed schedules.
+ *
+ * @author zwets
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TriageDelegateBenchmark {
+
+    @Param({ "1", "30", "365" })
+    private int slots;
+
+    @Param({ "0", "1000" })
+    private int cacheSize;
+
+    private TriageDelegate triageDelegate;
+    private Map<String,Object> vars;
+    private DelegateExecution execution;
+    private Instant prevDueTime;
+
+    @Setup
+    public void setup() {
+        TargetBlockerService neverBlocks = new TargetBlockerService(BenchmarkStubs.processEngine(), null, null) {
+            @Override
+            public boolean isTargetBlocked(String clientId, String targetId) {
+                return false;
+            }
+        };
+        DueTimePlanner planner = new DueTimePlanner(new SendRateShaper(0, 0, Map.of()));
+        triageDelegate = new TriageDelegate(neverBlocks, new SchedulerCache(cacheSize),
+                planner, new ReservationTracker(planner, null), Duration.ofMinutes(10), Duration.ofMinutes(5));
+
+        long start = Instant.now().plusSeconds(3600).getEpochSecond();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < slots; ++i) {
+            sb.append(i == 0 ? "" : ";").append(new Slot(start + i * 86400, start + i * 86400 + 8 * 3600));
+        }
+
+        vars = new HashMap<String,Object>();
+        vars.put(Constants.VAR_CLIENT_ID, "client");
+        vars.put(Constants.VAR_TARGET_ID, "target");
+        vars.put(Constants.VAR_CLIENT_KEY, "key");
+        vars.put(Constants.VAR_SCHEDULE, sb.toString());
+        execution = BenchmarkStubs.delegateExecution("1234-5678", vars);
+
+        prevDueTime = Instant.ofEpochSecond(start + 3600);
+    }
+
+    @Benchmark
+    public Object triageNew() {
+        vars.remove(Constants.VAR_SMS_STATUS);
+        vars.remove(Constants.VAR_SMS_RETRIES);
+        triageDelegate.execute(execution);
+        return vars.get(Constants.VAR_SMS_DUETIME);
+    }
+
+    @Benchmark
+    public Object triageRetry() {
+        vars.put(Constants.VAR_SMS_STATUS, Constants.SMS_STATUS_FAILED);
+        vars.put(Constants.VAR_SMS_RETRIES, 0);
+        vars.put(Constants.VAR_SMS_DUETIME, prevDueTime);
+        triageDelegate.execute(execution);
+        return vars.get(Constants.VAR_SMS_DUETIME);
+    }
+}
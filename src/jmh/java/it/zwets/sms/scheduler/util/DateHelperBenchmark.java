@@ -0,0 +1,52 @@
+package it.zwets.sms.scheduler.util;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the {@link DateHelper} formatting used for every reported status.
+ *
+ * @author zwets
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateHelperBenchmark {
+
+    private DateHelper dateHelper;
+    private Instant instant;
+    private Date date;
+
+    @Setup
+    public void setup() {
+        dateHelper = new DateHelper(ZoneOffset.of("+03:00"));
+        instant = Instant.parse("2024-01-01T08:00:00.123Z");
+        date = Date.from(instant);
+    }
+
+    @Benchmark
+    public String formatInstant() {
+        return dateHelper.format(instant);
+    }
+
+    @Benchmark
+    public String formatDate() {
+        return dateHelper.format(date);
+    }
+}
@@ -0,0 +1,71 @@
+package it.zwets.sms.scheduler.util;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the JSON conversions of {@link Slot} and {@link Scheduler}.
+ *
+ * @author zwets
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+
+    @Param({ "1", "10", "100" })
+    private int slots;
+
+    private Slot slot;
+    private String slotJson;
+    private Scheduler scheduler;
+    private String schedulerJson;
+
+    @Setup
+    public void setup() {
+        long start = Instant.parse("2024-01-01T08:00:00Z").getEpochSecond();
+        Slot[] array = new Slot[slots];
+        for (int i = 0; i < slots; ++i) {
+            array[i] = new Slot(start + i * 86400, start + i * 86400 + 8 * 3600);
+        }
+        slot = array[0];
+        slotJson = slot.toJson();
+        scheduler = new Scheduler(array);
+        schedulerJson = scheduler.toJson();
+    }
+
+    @Benchmark
+    public String slotToJson() {
+        return slot.toJson();
+    }
+
+    @Benchmark
+    public Slot slotParseJson() {
+        return Slot.parseJson(slotJson);
+    }
+
+    @Benchmark
+    public String schedulerToJson() {
+        return scheduler.toJson();
+    }
+
+    @Benchmark
+    public Scheduler schedulerParseJson() {
+        return Scheduler.parseJson(schedulerJson);
+    }
+}
@@ -0,0 +1,110 @@
+package it.zwets.sms.scheduler.util;
+
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoField;
+import java.util.Arrays;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the {@link ScheduleParser} with the Scanner and DateTimeFormatter
+ * based parser that it replaced (reproduced below as the baseline).
+ *
+ * @author zwets
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScheduleParserBenchmark {
+
+    @Param({ "1", "10", "100" })
+    private int slots;
+
+    private String longSchedule;
+    private String isoSchedule;
+
+    @Setup
+    public void setup() {
+        long start = Instant.parse("2024-01-01T08:00:00Z").getEpochSecond();
+        StringBuilder lsb = new StringBuilder();
+        StringBuilder isb = new StringBuilder();
+        for (int i = 0; i < slots; ++i) {
+            Slot s = new Slot(start + i * 86400, start + i * 86400 + 8 * 3600);
+            lsb.append(i == 0 ? "" : ";").append(s.toString());
+            isb.append(i == 0 ? "" : ";").append(s.toStringISO());
+        }
+        longSchedule = lsb.toString();
+        isoSchedule = isb.toString();
+    }
+
+    @Benchmark
+    public long[] parseLong() {
+        return ScheduleParser.parseSchedule(longSchedule);
+    }
+
+    @Benchmark
+    public long[] parseIso() {
+        return ScheduleParser.parseSchedule(isoSchedule);
+    }
+
+    @Benchmark
+    public long[] baselineParseLong() {
+        return baselineParse(longSchedule);
+    }
+
+    @Benchmark
+    public long[] baselineParseIso() {
+        return baselineParse(isoSchedule);
+    }
+
+    /* The parser as it was in Scheduler(String) and Slot.parse before ScheduleParser. */
+    private static long[] baselineParse(String schedule) {
+        long[] pairs = new long[0];
+        try (Scanner scanner = new Scanner(schedule)) {
+            scanner.useDelimiter(";");
+            while (scanner.hasNext()) {
+                String str = scanner.next();
+                long from, till;
+                try (Scanner slot = new Scanner(str)) {
+                    if (str.contains("/")) {
+                        slot.useDelimiter("/");
+                        from = isoToLong(slot.next());
+                        till = isoToLong(slot.next());
+                    }
+                    else if (str.matches("^\\d+-\\d+$")) {
+                        slot.useDelimiter("-");
+                        from = slot.nextLong();
+                        till = slot.nextLong();
+                    }
+                    else {
+                        throw new IllegalArgumentException("Not a recognised Slot format: %s".formatted(str));
+                    }
+                }
+                pairs = Arrays.copyOf(pairs, pairs.length + 2);
+                pairs[pairs.length - 2] = from;
+                pairs[pairs.length - 1] = till;
+            }
+        }
+        return pairs;
+    }
+
+    private static long isoToLong(String iso) {
+        return DateTimeFormatter.ISO_OFFSET_DATE_TIME.parse(iso, t -> t.getLong(ChronoField.INSTANT_SECONDS));
+    }
+}
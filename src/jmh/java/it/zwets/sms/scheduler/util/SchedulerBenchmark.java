@@ -0,0 +1,98 @@
+package it.zwets.sms.scheduler.util;
+
+import java.time.Instant;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks construction of and lookups in a {@link Scheduler}, for
+ * schedules of daily slots (as produced by recurring send windows).
+ *
+ * @author zwets
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SchedulerBenchmark {
+
+    @Param({ "1", "10", "100", "1000" })
+    private int slots;
+
+    private Slot[] shuffledSlots;
+    private String longSchedule;
+    private String isoSchedule;
+    private Scheduler scheduler;
+    private Instant[] probes;
+    private int probe;
+
+    @Setup
+    public void setup() {
+        long start = Instant.parse("2024-01-01T08:00:00Z").getEpochSecond();
+        Random random = new Random(42);
+
+        shuffledSlots = new Slot[slots];
+        StringBuilder lsb = new StringBuilder();
+        StringBuilder isb = new StringBuilder();
+        for (int i = 0; i < slots; ++i) {
+            Slot s = new Slot(start + i * 86400, start + i * 86400 + 8 * 3600);
+            lsb.append(i == 0 ? "" : ";").append(s.toString());
+            isb.append(i == 0 ? "" : ";").append(s.toStringISO());
+            int j = random.nextInt(i + 1);
+            shuffledSlots[i] = shuffledSlots[j];
+            shuffledSlots[j] = s;
+        }
+        longSchedule = lsb.toString();
+        isoSchedule = isb.toString();
+        scheduler = new Scheduler(longSchedule);
+
+        probes = new Instant[1024];
+        for (int i = 0; i < probes.length; ++i) {
+            probes[i] = Instant.ofEpochSecond(start + random.nextLong(slots * 86400L));
+        }
+    }
+
+    @Benchmark
+    public Scheduler constructFromSlots() {
+        return new Scheduler(shuffledSlots);
+    }
+
+    @Benchmark
+    public Scheduler constructFromLongString() {
+        return new Scheduler(longSchedule);
+    }
+
+    @Benchmark
+    public Scheduler constructFromIsoString() {
+        return new Scheduler(isoSchedule);
+    }
+
+    @Benchmark
+    public String scheduleToString() {
+        return scheduler.toString();
+    }
+
+    @Benchmark
+    public Instant firstAvailableInstant() {
+        return scheduler.getFirstAvailableInstant(probes[probe++ & 1023]);
+    }
+
+    @Benchmark
+    public Instant deadlineInstant() {
+        return scheduler.getDeadlineInstant(probes[probe++ & 1023]);
+    }
+}
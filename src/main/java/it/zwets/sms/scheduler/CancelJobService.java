@@ -0,0 +1,303 @@
+package it.zwets.sms.scheduler;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.flowable.engine.ProcessEngine;
+import org.flowable.engine.RuntimeService;
+import org.flowable.engine.runtime.Execution;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import it.zwets.sms.scheduler.SmsSchedulerConfiguration.Constants;
+import it.zwets.sms.scheduler.store.CancelJobStore;
+import it.zwets.sms.scheduler.store.SmsStatusStore;
+import it.zwets.sms.scheduler.store.SmsStatusStore.Query;
+import it.zwets.sms.scheduler.util.DateHelper;
+
+/**
+ * Cancels scheduled SMS in bulk.
+ *
+ * A cancel job selects the SMS of a client, optionally by batch, key or
+ * target, that were scheduled up to the job's creation.  It walks them in
+ * (start time, id) order through the {@link SmsStatusStore}, and cancels
+ * them in chunks of {@link #CHUNK_SIZE}, each in its own transaction, so
+ * that no transaction grows with the size of the selection.  Each SMS is
+ * canceled in a savepoint, so one failure does not roll back its chunk.
+ *
+ * The job's progress and resume point are committed with each chunk in the
+ * {@link CancelJobStore}.  Jobs can run synchronously, or be submitted to
+ * run in the background, one at a time.  Jobs that were queued or running
+ * when the application stopped are resumed at startup.
+ *
+ * With several nodes on one database, a node runs a job only while it holds
+ * the job's lease in the {@link CancelJobStore}, which it extends with each
+ * chunk.  Nodes periodically resume the jobs whose lease has expired, such
+ * as those of a node that stopped.
+ *
+ * @author zwets
+ */
+@Service
+public class CancelJobService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CancelJobService.class);
+
+    /** Number of SMS canceled per transaction */
+    public static final int CHUNK_SIZE = 500;
+
+    /* Finished jobs are deleted at startup after this time. */
+    private static final Duration JOB_RETENTION = Duration.ofDays(7);
+
+    /* A node holds a job this long after it claimed it or finished a chunk. */
+    private static final long LEASE_MINUTES = 5;
+    private static final Duration LEASE = Duration.ofMinutes(LEASE_MINUTES);
+
+    /** What a job selects on */
+    public enum Scope { CLIENT, BATCH, KEY, TARGET }
+
+    /** The DTO for reporting on a cancel job */
+    public final record CancelJob(
+            String id, String client, String scope, String value, String state,
+            int matched, int canceled, int finished, int failed, String created, String updated, String error) { }
+
+    private final RuntimeService runtimeService;
+    private final SmsStatusStore statusStore;
+    private final CancelJobStore jobStore;
+    private final DateHelper dateHelper;
+    private final TransactionTemplate chunkTransaction;
+    private final TransactionTemplate itemSavepoint;
+
+    /* Identifies this node as the owner of the job leases. */
+    private final String nodeId = UUID.randomUUID().toString();
+
+    /* Runs the submitted jobs one at a time, to bound the load they put on the database. */
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "cancel-job");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public CancelJobService(ProcessEngine processEngine, SmsStatusStore statusStore, CancelJobStore jobStore,
+            DateHelper dateHelper, PlatformTransactionManager transactionManager) {
+        this.runtimeService = processEngine.getRuntimeService();
+        this.statusStore = statusStore;
+        this.jobStore = jobStore;
+        this.dateHelper = dateHelper;
+        this.chunkTransaction = new TransactionTemplate(transactionManager);
+        this.itemSavepoint = new TransactionTemplate(transactionManager);
+        this.itemSavepoint.setPropagationBehavior(TransactionDefinition.PROPAGATION_NESTED);
+    }
+
+    /**
+     * Create a cancel job and run it to completion
+     * @param clientId the client
+     * @param scope what to select on
+     * @param value the batch, key or target to select, or null for scope CLIENT
+     * @return the final state of the job
+     * @throws IllegalStateException if the job failed
+     */
+    public CancelJob run(String clientId, Scope scope, String value) {
+        String id = create(clientId, scope, value);
+        process(id);
+        CancelJob job = getJob(clientId, id);
+        if (CancelJobStore.STATE_FAILED.equals(job.state())) {
+            throw new IllegalStateException("Cancel job %s failed after %d SMS: %s".formatted(id, job.matched(), job.error()));
+        }
+        return job;
+    }
+
+    /**
+     * Create a cancel job and queue it for running in the background.
+     * When called in a transaction, the job is queued when it commits.
+     * @param clientId the client
+     * @param scope what to select on
+     * @param value the batch, key or target to select, or null for scope CLIENT
+     * @return the initial state of the job
+     */
+    public CancelJob submit(String clientId, Scope scope, String value) {
+        String id = create(clientId, scope, value);
+        afterCommit(() -> executor.execute(() -> process(id)));
+        return getJob(clientId, id);
+    }
+
+    /**
+     * Return the state of a job
+     * @param clientId the client, which must own the job
+     * @param jobId the job id
+     * @return the job, or null if there is no such job for the client
+     */
+    public CancelJob getJob(String clientId, String jobId) {
+        CancelJobStore.Job job = jobStore.find(jobId);
+        return job == null || !job.clientId().equals(clientId) ? null : toCancelJob(job);
+    }
+
+    /**
+     * Queue the jobs that did not complete before the last shutdown,
+     * and delete those that finished long ago.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeJobs() {
+        jobStore.purge(Instant.now().minus(JOB_RETENTION));
+        resumeExpiredJobs();
+    }
+
+    /**
+     * Queue the unfinished jobs that no node holds a lease on.
+     */
+    @Scheduled(initialDelay = LEASE_MINUTES, fixedDelay = LEASE_MINUTES, timeUnit = TimeUnit.MINUTES)
+    public void resumeExpiredJobs() {
+        for (CancelJobStore.Job job : jobStore.findResumable(Instant.now())) {
+            LOG.info("Resuming cancel job {} after {} SMS", job.id(), job.matched());
+            executor.execute(() -> process(job.id()));
+        }
+    }
+
+    private String create(String clientId, Scope scope, String value) {
+        if (clientId == null || (scope != Scope.CLIENT && value == null)) {
+            throw new IllegalArgumentException("Cancel job needs a client and a value for scope " + scope);
+        }
+        String id = UUID.randomUUID().toString();
+        jobStore.add(id, clientId, scope.name(), scope == Scope.CLIENT ? null : value, Instant.now());
+        LOG.debug("Created cancel job {} for {} {}:{}", id, scope, clientId, value);
+        return id;
+    }
+
+    /* Process the job from its resume point, a chunk per transaction, while holding its lease. */
+    private void process(String jobId) {
+        try {
+            if (!jobStore.claim(jobId, nodeId, Instant.now(), Instant.now().plus(LEASE))) {
+                LOG.debug("Cancel job {} is finished or leased by another node", jobId);
+                return;
+            }
+            CancelJobStore.Job job = jobStore.find(jobId);
+            if (job == null) {
+                return;
+            }
+            Query query = toQuery(job);
+            Instant afterStarted = job.lastStarted();
+            String afterId = job.lastId();
+
+            List<SmsStatusStore.Row> chunk;
+            do {
+                final Instant from = afterStarted;
+                final String fromId = afterId;
+                chunk = chunkTransaction.execute(status -> cancelChunk(jobId, query, from, fromId));
+                if (!chunk.isEmpty()) {
+                    afterStarted = chunk.get(chunk.size() - 1).started();
+                    afterId = chunk.get(chunk.size() - 1).id();
+                }
+            } while (chunk.size() == CHUNK_SIZE);
+
+            jobStore.setState(jobId, nodeId, CancelJobStore.STATE_DONE, null);
+            LOG.debug("Cancel job {} done", jobId);
+        }
+        catch (LeaseLostException e) {
+            LOG.warn("Cancel job {} was taken over by another node", jobId);
+        }
+        catch (RuntimeException e) {
+            LOG.error("Cancel job {} failed: {}", jobId, e.getMessage());
+            jobStore.setState(jobId, nodeId, CancelJobStore.STATE_FAILED, e.getMessage());
+        }
+    }
+
+    /* Cancel the chunk of SMS after (from, fromId) and record the progress, in the caller's transaction. */
+    private List<SmsStatusStore.Row> cancelChunk(String jobId, Query query, Instant from, String fromId) {
+        List<SmsStatusStore.Row> chunk = statusStore.findPage(query, from, fromId, CHUNK_SIZE);
+
+        int canceled = 0, finished = 0, failed = 0;
+        for (SmsStatusStore.Row row : chunk) {
+            if (row.ended() != null) {
+                ++finished;
+                continue;
+            }
+            try {
+                if (Boolean.TRUE.equals(itemSavepoint.execute(status -> cancelInstance(row.id())))) {
+                    ++canceled;
+                }
+                else {
+                    ++finished;
+                }
+            }
+            catch (RuntimeException e) {
+                LOG.warn("Cancel job {} failed to cancel SMS {}: {}", jobId, row.id(), e.getMessage());
+                ++failed;
+            }
+        }
+
+        if (!chunk.isEmpty()) {
+            SmsStatusStore.Row last = chunk.get(chunk.size() - 1);
+            if (!jobStore.addProgress(jobId, nodeId, chunk.size(), canceled, finished, failed,
+                    last.started(), last.id(), Instant.now().plus(LEASE))) {
+                throw new LeaseLostException(); // rolls back the chunk, the new owner redoes it
+            }
+        }
+
+        return chunk;
+    }
+
+    /* Trigger the cancel on the instance, returning false if it is not waiting for one. */
+    private boolean cancelInstance(String instanceId) {
+        Execution ex = runtimeService.createExecutionQuery()
+                .processInstanceId(instanceId)
+                .activityId(Constants.ACTIVITY_RECV_CANCEL)
+                .singleResult();
+
+        if (ex == null) {
+            return false;
+        }
+
+        LOG.debug("Canceling SMS {}", instanceId);
+        runtimeService.trigger(ex.getId());
+        return true;
+    }
+
+    /* Runs the action after the current transaction commits, if any, so the worker sees the job. */
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        }
+        else {
+            action.run();
+        }
+    }
+
+    /* Thrown when the lease on a job was lost, e.g. because a chunk outlasted it. */
+    private static class LeaseLostException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static Query toQuery(CancelJobStore.Job job) {
+        Query query = Query.ofClient(job.clientId()).between(null, job.created());
+        return switch (Scope.valueOf(job.scope())) {
+            case CLIENT -> query;
+            case BATCH -> query.withBatch(job.value());
+            case KEY -> query.withClientKey(job.value());
+            case TARGET -> query.withTarget(job.value());
+        };
+    }
+
+    private CancelJob toCancelJob(CancelJobStore.Job job) {
+        return new CancelJob(job.id(), job.clientId(), job.scope(), job.value(), job.state(),
+                job.matched(), job.canceled(), job.finished(), job.failed(),
+                dateHelper.format(job.created()), dateHelper.format(job.updated()), job.error());
+    }
+}
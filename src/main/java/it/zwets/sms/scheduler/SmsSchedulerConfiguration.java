@@ -2,22 +2,42 @@ package it.zwets.sms.scheduler;
 
 import java.time.Duration;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
 
+import org.flowable.common.engine.api.delegate.event.FlowableEventListener;
 import org.flowable.engine.ProcessEngine;
 import org.flowable.engine.RuntimeService;
 import org.flowable.idm.api.IdmIdentityService;
+import org.flowable.spring.SpringProcessEngineConfiguration;
+import org.flowable.spring.boot.EngineConfigurationConfigurer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
 
+import io.micrometer.core.instrument.MeterRegistry;
+
+import it.zwets.sms.scheduler.delegate.ReservationTracker;
 import it.zwets.sms.scheduler.delegate.TriageDelegate;
+import it.zwets.sms.scheduler.diag.AsyncEventLog;
 import it.zwets.sms.scheduler.diag.ProcessLogger;
+import it.zwets.sms.scheduler.diag.SendForecastEndpoint;
+import it.zwets.sms.scheduler.diag.SmsMetrics;
+import it.zwets.sms.scheduler.diag.TimerBacklogEndpoint;
 import it.zwets.sms.scheduler.diag.VariableLogger;
 import it.zwets.sms.scheduler.iam.IamService;
 import it.zwets.sms.scheduler.init.SmsSchedulerProcessInitialiser;
+import it.zwets.sms.scheduler.store.ClientKeyStore;
+import it.zwets.sms.scheduler.store.PayloadStore;
+import it.zwets.sms.scheduler.store.SmsStatusProjector;
+import it.zwets.sms.scheduler.store.SmsStatusStore;
 import it.zwets.sms.scheduler.util.DateHelper;
+import it.zwets.sms.scheduler.util.DueTimePlanner;
+import it.zwets.sms.scheduler.util.SchedulerCache;
+import it.zwets.sms.scheduler.util.SendRateShaper;
 
 /**
  * Application configuration.
@@ -45,27 +65,70 @@ public class SmsSchedulerConfiguration {
     @Value("${sms.scheduler.config.wait-after-fail}")
     private Duration waitAfterFail;
 
+    @Value("${sms.scheduler.config.schedule-cache-size:1000}")
+    private int scheduleCacheSize;
+
+    @Value("${sms.scheduler.config.schedule-chunk-size:500}")
+    private int scheduleChunkSize;
+
+    @Value("${sms.scheduler.config.unique-client-keys:false}")
+    private boolean uniqueClientKeys;
+
+    @Value("${sms.scheduler.config.send-rate:0}")
+    private int sendRate;
+
+    @Value("${sms.scheduler.config.client-send-rate:0}")
+    private int clientSendRate;
+
+    @Value("${sms.scheduler.config.client-send-rates:}")
+    private String clientSendRates;
+
     @Value("${sms.scheduler.diag.processes.enabled:false}")
     private boolean diagProcessesEnabled;
 
     @Value("${sms.scheduler.diag.processes.detailed:false}")
     private boolean diagProcessesDetailed;
+
+    @Value("${sms.scheduler.diag.processes.async:false}")
+    private boolean diagProcessesAsync;
+
+    @Value("${sms.scheduler.diag.processes.sampling:}")
+    private String diagProcessesSampling;
     
     private final RuntimeService runtimeService;
     private final IdmIdentityService idmIdentityService;
-    private final TargetBlockerService targetBlockerService;
     
     /**
      * Public constructor
      * @param runtimeService
      * @param idmIdentityService
      */
-    public SmsSchedulerConfiguration(ProcessEngine processEngine, IdmIdentityService idmIdentityService, TargetBlockerService targetBlockerService) {
+    public SmsSchedulerConfiguration(ProcessEngine processEngine, IdmIdentityService idmIdentityService) {
         this.runtimeService = processEngine.getRuntimeService();
         this.idmIdentityService = idmIdentityService;
-        this.targetBlockerService = targetBlockerService;
     }
     
+    /**
+     * Lets process definitions set their own history level, so that the
+     * blockTargetProcess leaves no history (blocks are in the BlockedTargetStore),
+     * and registers the SmsStatusProjector that maintains the SmsStatusStore.
+     * Static, as the process engine is built before this configuration.
+     * @param smsStatusStore the status projection store
+     * @return configurer for the process engine configuration
+     */
+    @Bean
+    public static EngineConfigurationConfigurer<SpringProcessEngineConfiguration> processEngineConfigurer(SmsStatusStore smsStatusStore) {
+        return config -> {
+            config.setEnableProcessDefinitionHistoryLevel(true);
+            List<FlowableEventListener> listeners = new ArrayList<FlowableEventListener>();
+            if (config.getEventListeners() != null) {
+                listeners.addAll(config.getEventListeners());
+            }
+            listeners.add(new SmsStatusProjector(smsStatusStore));
+            config.setEventListeners(listeners);
+        };
+    }
+
     @Bean 
     public IamService iamService() {
         LOG.debug("Creating IamService");
@@ -73,13 +136,50 @@ public class SmsSchedulerConfiguration {
     }
     
     @Bean
-    public SmsSchedulerProcessInitialiser smsSchedulerProcessInitialiser() {
-        return new SmsSchedulerProcessInitialiser();
+    public SmsSchedulerProcessInitialiser smsSchedulerProcessInitialiser(PayloadStore payloadStore, ClientKeyStore clientKeyStore) {
+        return new SmsSchedulerProcessInitialiser(payloadStore, clientKeyStore);
     }
     
     @Bean
-    public TriageDelegate triageDelegate() {
-        return new TriageDelegate(targetBlockerService, waitAfterFail, maxAddJitter);
+    public ClientKeyStore clientKeyStore(JdbcTemplate jdbcTemplate) {
+        return new ClientKeyStore(jdbcTemplate, uniqueClientKeys);
+    }
+    
+    @Bean
+    public SchedulerCache schedulerCache() {
+        return new SchedulerCache(scheduleCacheSize);
+    }
+
+    @Bean
+    public SchedulerCache.Metrics schedulerCacheMetrics(SchedulerCache schedulerCache) {
+        return new SchedulerCache.Metrics(schedulerCache);
+    }
+
+    @Bean
+    public TargetBlockerService.Metrics targetBlockerMetrics(TargetBlockerService targetBlockerService) {
+        return new TargetBlockerService.Metrics(targetBlockerService);
+    }
+
+    @Bean
+    public TriageDelegate triageDelegate(TargetBlockerService targetBlockerService, SchedulerCache schedulerCache,
+            DueTimePlanner dueTimePlanner, ReservationTracker reservationTracker) {
+        return new TriageDelegate(targetBlockerService, schedulerCache, dueTimePlanner, reservationTracker,
+                waitAfterFail, maxAddJitter);
+    }
+
+    @Bean
+    public DueTimePlanner dueTimePlanner(SendRateShaper sendRateShaper) {
+        return new DueTimePlanner(sendRateShaper);
+    }
+
+    @Bean
+    public ReservationTracker reservationTracker(DueTimePlanner dueTimePlanner, SmsStatusStore smsStatusStore) {
+        return new ReservationTracker(dueTimePlanner, smsStatusStore);
+    }
+
+    @Bean
+    public SendRateShaper sendRateShaper() {
+        return new SendRateShaper(sendRate, clientSendRate, SendRateShaper.parseRates(clientSendRates));
     }
     
     /**
@@ -98,6 +198,14 @@ public class SmsSchedulerConfiguration {
         return ackRecvTimeout;
     }
     
+    /**
+     * Number of SMS the bulk schedule endpoint starts per transaction
+     * @return the value of application property sms.scheduler.config.schedule-chunk-size
+     */
+    public int getScheduleChunkSize() {
+        return scheduleChunkSize;
+    }
+    
     @Bean
     public DateHelper dateHelper() {
         LOG.debug("Creating DateHelper bean for time zone {}", appTimeZone);
@@ -106,7 +214,28 @@ public class SmsSchedulerConfiguration {
     
     @Bean
     public ProcessLogger processLogger() {
-        return new ProcessLogger(new VariableLogger(runtimeService), diagProcessesEnabled, diagProcessesDetailed);
+        return new ProcessLogger(new VariableLogger(runtimeService), diagProcessesEnabled, diagProcessesDetailed,
+                diagProcessesEnabled && diagProcessesAsync ? new AsyncEventLog() : null, diagProcessesSampling);
+    }
+
+    @Bean
+    public SmsMetrics smsMetrics(MeterRegistry meterRegistry) {
+        return new SmsMetrics(meterRegistry);
+    }
+
+    @Bean
+    public TimerBacklogEndpoint timerBacklogEndpoint(SmsStatusStore smsStatusStore, DateHelper dateHelper) {
+        return new TimerBacklogEndpoint(smsStatusStore, dateHelper);
+    }
+
+    @Bean
+    public TimerBacklogEndpoint.Metrics timerBacklogMetrics(TimerBacklogEndpoint timerBacklogEndpoint) {
+        return new TimerBacklogEndpoint.Metrics(timerBacklogEndpoint);
+    }
+
+    @Bean
+    public SendForecastEndpoint sendForecastEndpoint(DueTimePlanner dueTimePlanner, DateHelper dateHelper) {
+        return new SendForecastEndpoint(dueTimePlanner, dateHelper);
     }
 
     /**
@@ -118,6 +247,9 @@ public class SmsSchedulerConfiguration {
         
         public static final String SMS_SCHEDULER_PROCESS_NAME = "smsSchedulerProcess";
         public static final String BLOCK_TARGET_PROCESS_NAME = "blockTargetProcess";
+        public static final String CANCEL_BATCH_PROCESS_NAME = "cancelBatchProcess";
+        public static final String CANCEL_TARGET_PROCESS_NAME = "cancelTargetProcess";
+        public static final String CANCEL_CLIENT_PROCESS_NAME = "cancelClientProcess";
         
         // Variable names (set on the process instance)
 
@@ -126,7 +258,8 @@ public class SmsSchedulerConfiguration {
         public static final String VAR_CLIENT_KEY = "clientKey";
         public static final String VAR_TARGET_ID = "targetId";
         public static final String VAR_SCHEDULE = "schedule";
-        public static final String VAR_PAYLOAD = "payload";
+        public static final String VAR_PAYLOAD = "payload";     // only until moved to the PayloadStore
+        public static final String VAR_PAYLOAD_ID = "payloadId";
         
         public static final String VAR_USER_ID = "userId";
         
@@ -2,8 +2,10 @@ package it.zwets.sms.scheduler;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication(proxyBeanMethods = false)
+@EnableScheduling
 public class SmsSchedulerServer {
 
 	public static void main(String[] args) {
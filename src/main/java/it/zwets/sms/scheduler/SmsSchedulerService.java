@@ -1,44 +1,93 @@
 package it.zwets.sms.scheduler;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 import org.flowable.engine.HistoryService;
 import org.flowable.engine.ProcessEngine;
 import org.flowable.engine.RuntimeService;
 import org.flowable.engine.history.HistoricProcessInstance;
 import org.flowable.engine.runtime.Execution;
+import org.flowable.variable.api.history.HistoricVariableInstance;
 import org.flowable.engine.runtime.ProcessInstance;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import it.zwets.sms.scheduler.CancelJobService.Scope;
 import it.zwets.sms.scheduler.SmsSchedulerConfiguration.Constants;
+import it.zwets.sms.scheduler.delegate.ReservationTracker;
+import it.zwets.sms.scheduler.store.ClientKeyStore;
+import it.zwets.sms.scheduler.store.PayloadStore;
+import it.zwets.sms.scheduler.store.SmsStatusStore;
+import it.zwets.sms.scheduler.store.SmsStatusStore.Query;
 import it.zwets.sms.scheduler.util.DateHelper;
 
 @Service
 public class SmsSchedulerService {
 
 	private static final Logger LOG = LoggerFactory.getLogger(SmsSchedulerService.class);
+
+	private static final int PAGE_SIZE = 1000;
+
+	/* Marks the completion of the backfill of the status projection. */
+	private static final String BACKFILL_MARKER = "status-backfill";
 	
 	private final RuntimeService runtimeService;
 	private final HistoryService historyService;
+	private final SmsStatusStore statusStore;
+	private final PayloadStore payloadStore;
+	private final ClientKeyStore clientKeyStore;
+	private final CancelJobService cancelJobService;
+	private final ReservationTracker reservationTracker;
 	private final DateHelper dateHelper;
+	private final TransactionTemplate chunkTransaction;
+	private final TransactionTemplate itemSavepoint;
 	
 	/** The DTO for reporting status */
     public final record SmsStatus(
             String id, String client, String batch, String key, String target, String status, String due, String deadline, String started, String ended, int retries, String user) { }
 
-    public SmsSchedulerService(ProcessEngine processEngine, DateHelper dateHelper) {
+    /** A page of SmsStatus, with the cursor for the next page or null if this was the last */
+    public final record StatusPage(List<SmsStatus> items, String next) { }
+
+    /** A request in a bulk schedule; all fields except schedule and payload can be null */
+    public final record SmsRequest(String batch, String key, String target, String schedule, String payload) { }
+
+    /** The result for the request at index in a bulk schedule: its status, or else the error */
+    public final record SmsResult(int index, SmsStatus status, String error) { }
+
+    public SmsSchedulerService(ProcessEngine processEngine, SmsStatusStore statusStore, PayloadStore payloadStore,
+            ClientKeyStore clientKeyStore, CancelJobService cancelJobService, ReservationTracker reservationTracker,
+            DateHelper dateHelper, PlatformTransactionManager transactionManager) {
         this.runtimeService = processEngine.getRuntimeService();
         this.historyService = processEngine.getHistoryService();
+        this.statusStore = statusStore;
+        this.payloadStore = payloadStore;
+        this.clientKeyStore = clientKeyStore;
+        this.cancelJobService = cancelJobService;
+        this.reservationTracker = reservationTracker;
         this.dateHelper = dateHelper;
+        this.chunkTransaction = new TransactionTemplate(transactionManager);
+        this.itemSavepoint = new TransactionTemplate(transactionManager);
+        this.itemSavepoint.setPropagationBehavior(TransactionDefinition.PROPAGATION_NESTED);
     }
     
     // Scheduling ---------------------------------------------------------------------------------
@@ -48,7 +97,8 @@ public class SmsSchedulerService {
      * 
      * @param clientId the client we are operating for
      * @param targetId optional client identification of the target (recipient)
-     * @param clientKey optionally unique ID assigned by the client
+     * @param clientKey optionally unique ID assigned by the client; when client keys are
+     *        configured unique, the SMS already scheduled with the key is returned
      * @param slots the time slots within which sending is desired
      * @param payload the encrypted payload to forward on the send queue
      * @return SmsStatus object with the incoming parameter plus assigned unique id and start time
@@ -58,6 +108,37 @@ public class SmsSchedulerService {
     		String clientId, String batchId, String clientKey, String targetId, String schedule, String payload) {
 
 		LOG.debug("SmsSchedulerService::scheduleSms({},{},{},{},{},{})", clientId, batchId, clientKey, targetId, schedule, payload);
+
+		if (!clientKeyStore.isEnabled() || clientKey == null) {
+		    return startSms(clientId, batchId, clientKey, targetId, schedule, payload);
+		}
+
+		String existingId = clientKeyStore.find(clientId, clientKey);
+		if (existingId != null) {
+		    SmsStatus existing = getSmsStatus(existingId);
+		    if (existing != null) {
+		        LOG.debug("Returning existing SMS for duplicate key {}:{}", clientId, clientKey);
+		        return existing;
+		    }
+		    LOG.info("Releasing client key {}:{} of deleted instance {}", clientId, clientKey, existingId);
+		    clientKeyStore.remove(existingId);
+		}
+
+		try { // in a savepoint, so that when a concurrent request took the key we can return its SMS
+		    return itemSavepoint.execute(status -> startSms(clientId, batchId, clientKey, targetId, schedule, payload));
+		}
+		catch (RuntimeException e) {
+		    SmsStatus existing = getSmsStatusByUniqueKey(clientId, clientKey);
+		    if (existing != null) {
+		        return existing;
+		    }
+		    throw e;
+		}
+    }
+
+    /* Start the process instance for an SMS (without checking for duplicate keys). */
+    private SmsStatus startSms(
+            String clientId, String batchId, String clientKey, String targetId, String schedule, String payload) {
 		
 		Map<String,Object> vars = new HashMap<String,Object>();
 		
@@ -69,7 +150,7 @@ public class SmsSchedulerService {
         vars.put(Constants.VAR_CLIENT_KEY, clientKey);
 		vars.put(Constants.VAR_TARGET_ID, targetId);
 		vars.put(Constants.VAR_SCHEDULE, schedule);
-		vars.put(Constants.VAR_PAYLOAD, payload);
+		vars.put(Constants.VAR_PAYLOAD_ID, payload == null ? null : payloadStore.put(payload));
         
 		ProcessInstance pi = runtimeService.startProcessInstanceByKey(Constants.SMS_SCHEDULER_PROCESS_NAME, vars);
 
@@ -91,103 +172,276 @@ public class SmsSchedulerService {
                 (String) vars.getOrDefault(Constants.VAR_USER_ID, null));
     }
 	
+    /**
+     * Schedule many SMS, starting them in chunks of chunkSize per transaction.
+     * Each request runs in a savepoint, so that a failing request is reported
+     * without rolling back the others in its chunk.  The results of a chunk
+     * are passed to the consumer when it has committed.
+     *
+     * When a request cannot be read, e.g. because it is malformed, the
+     * requests read before it are scheduled, and a last result with its
+     * index reports the error.  The requests from there are not read.
+     * 
+     * @param clientId the client we are operating for
+     * @param requests the requests, read as they are scheduled
+     * @param chunkSize the number of requests to start per transaction
+     * @param results receives the result for each request, in request order
+     * @return the number of SMS scheduled
+     */
+    public int scheduleSmsBulk(String clientId, Iterator<SmsRequest> requests, int chunkSize, Consumer<SmsResult> results) {
+        LOG.debug("SmsSchedulerService::scheduleSmsBulk({},{})", clientId, chunkSize);
+
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+
+        int index = 0, scheduled = 0;
+        boolean more = true;
+        RuntimeException unreadable = null;
+
+        while (more) {
+            List<SmsRequest> chunk = new ArrayList<SmsRequest>(chunkSize);
+            try {
+                while (chunk.size() < chunkSize && (more = requests.hasNext())) {
+                    chunk.add(requests.next());
+                }
+            }
+            catch (RuntimeException e) { // the reader wraps parse and mapping errors
+                unreadable = e;
+                more = false;
+            }
+
+            if (chunk.isEmpty()) {
+                break;
+            }
+
+            final int first = index;
+            List<SmsResult> chunkResults;
+            try {
+                chunkResults = chunkTransaction.execute(status -> {
+                    List<SmsResult> rs = new ArrayList<SmsResult>(chunk.size());
+                    for (int i = 0; i < chunk.size(); ++i) {
+                        rs.add(scheduleInSavepoint(clientId, first + i, chunk.get(i)));
+                    }
+                    return rs;
+                });
+            }
+            catch (RuntimeException e) {
+                LOG.warn("Bulk schedule chunk at {} failed to commit: {}", first, e.getMessage());
+                chunkResults = new ArrayList<SmsResult>(chunk.size());
+                for (int i = 0; i < chunk.size(); ++i) {
+                    chunkResults.add(new SmsResult(first + i, null, e.getMessage()));
+                }
+            }
+
+            for (SmsResult r : chunkResults) {
+                if (r.status() != null) {
+                    ++scheduled;
+                }
+                results.accept(r);
+            }
+            index += chunk.size();
+        }
+
+        if (unreadable != null) {
+            LOG.debug("Bulk schedule stopped at unreadable request {}: {}", index, unreadable.getMessage());
+            results.accept(new SmsResult(index, null, "Stopped at invalid request: " + unreadable.getMessage()));
+        }
+
+        return scheduled;
+    }
+
+    private SmsResult scheduleInSavepoint(String clientId, int index, SmsRequest req) {
+        try {
+            return new SmsResult(index, itemSavepoint.execute(status -> scheduleSms(
+                    clientId, req.batch(), req.key(), req.target(), req.schedule(), req.payload())), null);
+        }
+        catch (RuntimeException e) {
+            LOG.debug("Bulk schedule request {} failed: {}", index, e.getMessage());
+            return new SmsResult(index, null, e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+        }
+    }
+
 	// Query --------------------------------------------------------------------------------------
 
+    /*
+     * The queries read the SmsStatusStore, the status projection maintained
+     * by the SmsStatusProjector, rather than the process history.
+     */
+
+    /**
+     * Return the SMS scheduled with a client key, when client keys are configured unique
+     * @param clientId the client
+     * @param clientKey the client key
+     * @return the SmsStatus, or null if there is none or keys are not unique
+     */
+    @Transactional
+    public SmsStatus getSmsStatusByUniqueKey(String clientId, String clientKey) {
+        LOG.trace("SmsSchedulerService::getSmsStatusByUniqueKey(clientId={}, clientKey={})", clientId, clientKey);
+
+        String id = clientKeyStore.find(clientId, clientKey);
+        return id == null ? null : getSmsStatus(id);
+    }
+
     @Transactional
     public SmsStatus getSmsStatus(String id) {
         LOG.trace("SmsSchedulerService::getSmsStatus(id={})", id);
         
-        HistoricProcessInstance hpi = historyService.createHistoricProcessInstanceQuery()
-                .processInstanceId(id)
-                .includeProcessVariables()
-                .singleResult();
-        
-        SmsStatus result = null;
-               
-        if (hpi != null) {
-            result = hpiToSmsStatus(hpi);
-        }
-        
-        return result;
+        SmsStatusStore.Row row = statusStore.find(id);
+        return row == null ? null : rowToSmsStatus(row);
     }
     
     @Transactional
     public List<SmsStatus> getStatusList() {
         LOG.trace("SmsSchedulerService::getStatusList()");
 
-        return historyService
-            .createHistoricProcessInstanceQuery()
-            .processDefinitionKey(Constants.SMS_SCHEDULER_PROCESS_NAME)
-            .orderByProcessInstanceStartTime().asc()
-            .includeProcessVariables()
-            .list().stream()
-            .map(this::hpiToSmsStatus)
-            .toList();
+        return getStatusList(Query.ALL);
     }
 
     @Transactional
     public List<SmsStatus> getStatusList(String clientId) {
 		LOG.trace("SmsSchedulerService::getStatusList(clientId={})", clientId);
 
-		return historyService
-			.createHistoricProcessInstanceQuery()
-			.processDefinitionKey(Constants.SMS_SCHEDULER_PROCESS_NAME)
-			.variableValueEquals(Constants.VAR_CLIENT_ID, clientId)
-			.orderByProcessInstanceStartTime().asc()
-			.includeProcessVariables()
-    		.list().stream()
-            .map(this::hpiToSmsStatus)
-    		.toList();
+		return getStatusList(Query.ofClient(clientId));
     }
 
     @Transactional
     public List<SmsStatus> getStatusListByBatch(String clientId, String batchId) {
         LOG.trace("SmsSchedulerService::getStatusList(clientId={}, batchId={})", clientId, batchId);
         
-        return historyService
-                .createHistoricProcessInstanceQuery()
-                .processDefinitionKey(Constants.SMS_SCHEDULER_PROCESS_NAME)
-                .variableValueEquals(Constants.VAR_CLIENT_ID, clientId)
-                .variableValueEquals(Constants.VAR_BATCH_ID, batchId)
-                .includeProcessVariables()
-                .orderByProcessInstanceStartTime().asc()
-                .list().stream()
-                .map(this::hpiToSmsStatus)
-                .toList();
+        return getStatusList(Query.ofClient(clientId).withBatch(batchId));
     }
 
     @Transactional
     public List<SmsStatus> getStatusListByClientKey(String clientId, String clientKey) {
         LOG.trace("SmsSchedulerService::getStatusList(clientId={}, clientKey={})", clientId, clientKey);
         
-        return historyService
-                .createHistoricProcessInstanceQuery()
-                .processDefinitionKey(Constants.SMS_SCHEDULER_PROCESS_NAME)
-                .variableValueEquals(Constants.VAR_CLIENT_ID, clientId)
-                .variableValueEquals(Constants.VAR_CLIENT_KEY, clientKey)
-                .includeProcessVariables()
-                .orderByProcessInstanceStartTime().asc()
-                .list().stream()
-                .map(this::hpiToSmsStatus)
-                .toList();
+        return getStatusList(Query.ofClient(clientId).withClientKey(clientKey));
     }
 
     @Transactional
     public List<SmsStatus> getStatusListByTarget(String clientId, String targetId) {
 		LOG.trace("SmsSchedulerService::getStatusList(clientId={}, targetId={})", clientId, targetId);
     	
-		return historyService
-        		.createHistoricProcessInstanceQuery()
-                .processDefinitionKey(Constants.SMS_SCHEDULER_PROCESS_NAME)
-         		.variableValueEquals(Constants.VAR_CLIENT_ID, clientId)
-        		.variableValueEquals(Constants.VAR_TARGET_ID, targetId)
-        		.includeProcessVariables()
-    			.orderByProcessInstanceStartTime().asc()
-        		.list().stream()
-        		.map(this::hpiToSmsStatus)
-        		.toList();
+		return getStatusList(Query.ofClient(clientId).withTarget(targetId));
     }
     
+    private List<SmsStatus> getStatusList(Query query) {
+        return statusStore.findAll(query).stream().map(this::rowToSmsStatus).toList();
+    }
+
+    // Paged query ----------------------------------------------------------------------------------
+
+    /*
+     * The paged queries return the instances in (start time, id) order.  The
+     * cursor holds the start time and id of the last instance returned, and
+     * the next page continues after it on the (client, ..., started, id) index.
+     */
+
+    @Transactional
+    public StatusPage getStatusPage(String clientId, String cursor, int limit) {
+        LOG.trace("SmsSchedulerService::getStatusPage(clientId={}, cursor={}, limit={})", clientId, cursor, limit);
+
+        return getStatusPage(Query.ofClient(clientId), cursor, limit);
+    }
+
+    @Transactional
+    public StatusPage getStatusPageByBatch(String clientId, String batchId, String cursor, int limit) {
+        LOG.trace("SmsSchedulerService::getStatusPage(clientId={}, batchId={}, cursor={}, limit={})", clientId, batchId, cursor, limit);
+
+        return getStatusPage(Query.ofClient(clientId).withBatch(batchId), cursor, limit);
+    }
+
+    @Transactional
+    public StatusPage getStatusPageByClientKey(String clientId, String clientKey, String cursor, int limit) {
+        LOG.trace("SmsSchedulerService::getStatusPage(clientId={}, clientKey={}, cursor={}, limit={})", clientId, clientKey, cursor, limit);
+
+        return getStatusPage(Query.ofClient(clientId).withClientKey(clientKey), cursor, limit);
+    }
+
+    @Transactional
+    public StatusPage getStatusPageByTarget(String clientId, String targetId, String cursor, int limit) {
+        LOG.trace("SmsSchedulerService::getStatusPage(clientId={}, targetId={}, cursor={}, limit={})", clientId, targetId, cursor, limit);
+
+        return getStatusPage(Query.ofClient(clientId).withTarget(targetId), cursor, limit);
+    }
+
+    /**
+     * Pass the status of all SMS of a client, optionally filtered, to a
+     * consumer.  Reads the SMS a page at a time, in separate transactions,
+     * so that any number can be exported in constant memory.
+     * @param clientId the client
+     * @param status optional status to filter on, e.g. DELIVERED
+     * @param from optional lower bound (inclusive) on the start time
+     * @param till optional upper bound (inclusive) on the start time
+     * @param consumer receives each SmsStatus in start time order
+     * @return the number of SMS passed to the consumer
+     */
+    public int exportStatus(String clientId, String status, Instant from, Instant till, Consumer<SmsStatus> consumer) {
+        LOG.trace("SmsSchedulerService::exportStatus(clientId={}, status={}, from={}, till={})", clientId, status, from, till);
+
+        Query query = Query.ofClient(clientId).withStatus(status).between(from, till);
+        int count = 0;
+        String cursor = null;
+
+        do {
+            StatusPage page = getStatusPage(query, cursor, PAGE_SIZE);
+            page.items().forEach(consumer);
+            count += page.items().size();
+            cursor = page.next();
+        } while (cursor != null);
+
+        return count;
+    }
+
+    /* Return the page of at most limit items that follows cursor (null for the first page). */
+    private StatusPage getStatusPage(Query query, String cursor, int limit) {
+
+        if (limit < 1) {
+            throw new IllegalArgumentException("Page limit must be positive: " + limit);
+        }
+
+        Instant afterStarted = null;
+        String afterId = null;
+
+        if (cursor != null) {
+            String[] c = decodeCursor(cursor);
+            afterStarted = Instant.ofEpochMilli(Long.parseLong(c[0]));
+            afterId = c[1];
+        }
+
+        List<SmsStatusStore.Row> rows = statusStore.findPage(query, afterStarted, afterId, limit + 1);
+
+        String next = null;
+
+        if (rows.size() > limit) {
+            rows = rows.subList(0, limit);
+            SmsStatusStore.Row last = rows.get(limit - 1);
+            next = encodeCursor(last.started().toEpochMilli(), last.id());
+        }
+
+        return new StatusPage(rows.stream().map(this::rowToSmsStatus).toList(), next);
+    }
+
+    private static String encodeCursor(long startTime, String id) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(
+                "%d:%s".formatted(startTime, id).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String[] decodeCursor(String cursor) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":", 2);
+            if (parts.length != 2 || parts[1].isEmpty()) {
+                throw new IllegalArgumentException();
+            }
+            Long.parseLong(parts[0]);
+            return parts;
+        }
+        catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+    }
+
     // Cancel ----------------------------------------------------------------------------------------
 
     @Transactional
@@ -205,78 +459,127 @@ public class SmsSchedulerService {
         }
     }
 
-    @Transactional
+    /*
+     * The bulk cancels run a cancel job, which cancels the matching SMS in
+     * chunks, each in its own transaction, rather than in one transaction.
+     * They throw an IllegalStateException if the job failed.
+     */
+
     public void cancelBatch(String clientId, String batchId) {
         LOG.trace("cancelBatch({},{})", clientId, batchId);
-        
-        for (Execution ex : runtimeService.createExecutionQuery()
-                .processDefinitionKey(Constants.SMS_SCHEDULER_PROCESS_NAME)
-                .activityId(Constants.ACTIVITY_RECV_CANCEL)
-                .processVariableValueEquals(Constants.VAR_CLIENT_ID, clientId)
-                .processVariableValueEquals(Constants.VAR_BATCH_ID, batchId)
-                .list())
-        {
-            LOG.debug("Canceling SMS by batch {}:{}: {}", clientId, batchId, ex.getProcessInstanceId());
-            runtimeService.trigger(ex.getId());
-        }
+        cancelJobService.run(clientId, Scope.BATCH, batchId);
     }
     
-    @Transactional
     public void cancelByClientKey(String clientId, String clientKey) {
         LOG.trace("cancelByClientKey({},{})", clientId, clientKey);
-        
-        for (Execution ex : runtimeService.createExecutionQuery()
-                .processDefinitionKey(Constants.SMS_SCHEDULER_PROCESS_NAME)
-                .activityId(Constants.ACTIVITY_RECV_CANCEL)
-                .processVariableValueEquals(Constants.VAR_CLIENT_ID, clientId)
-                .processVariableValueEquals(Constants.VAR_CLIENT_KEY, clientKey)
-                .list())
-        {
-            LOG.debug("Canceling SMS by key {}:{}: {}", clientId, clientKey, ex.getProcessInstanceId());
-            runtimeService.trigger(ex.getId());
-        }
+        cancelJobService.run(clientId, Scope.KEY, clientKey);
     }
     
-    @Transactional
     public void cancelAllForTarget(String clientId, String targetId) {
         LOG.debug("cancelAllForTarget({},{})", clientId, targetId);
-        
-        for (Execution ex : runtimeService.createExecutionQuery()
-                .processDefinitionKey(Constants.SMS_SCHEDULER_PROCESS_NAME)
-                .activityId(Constants.ACTIVITY_RECV_CANCEL)
-                .processVariableValueEquals(Constants.VAR_CLIENT_ID, clientId)
-                .processVariableValueEquals(Constants.VAR_TARGET_ID, targetId)
-                .list())
-        {
-            LOG.debug("Canceling SMS for target {}:{}: {}", clientId, targetId, ex.getProcessInstanceId());
-            runtimeService.trigger(ex.getId());
-        }
+        cancelJobService.run(clientId, Scope.TARGET, targetId);
     }
     
-    @Transactional
     public void cancelAllForClient(String clientId) {
         LOG.trace("cancelAllForClient({})", clientId);
+        cancelJobService.run(clientId, Scope.CLIENT, null);
+    }
+
+    /**
+     * Submit a cancel job to run in the background.  Called by the bulk
+     * cancel processes, which start on the cancelBatch, cancelTarget and
+     * cancelClient events from Kafka.
+     * @param clientId the client
+     * @param scope one of CLIENT, BATCH, KEY or TARGET
+     * @param value the batch, key or target, or null for CLIENT
+     * @return the id of the cancel job
+     */
+    public String submitCancel(String clientId, String scope, String value) {
+        LOG.debug("submitCancel({},{},{})", clientId, scope, value);
+        return cancelJobService.submit(clientId, Scope.valueOf(scope), value).id();
+    }
         
-        for (Execution ex : runtimeService.createExecutionQuery()
-                .processDefinitionKey(Constants.SMS_SCHEDULER_PROCESS_NAME)
+    /**
+     * Cancel the scheduled SMS of a client for any of a set of targets.
+     * Looks up the active SMS for a chunk of targets at a time on the
+     * (client, target) index of the status projection, and cancels each
+     * chunk in its own transaction, each SMS in a savepoint, so that large
+     * target sets, e.g. after a bulk block, need neither a query per target
+     * nor one large transaction.
+     * @param clientId the client
+     * @param targetIds the targets whose SMS to cancel
+     * @return the number of SMS canceled
+     */
+    public int cancelAllForTargets(String clientId, Set<String> targetIds) {
+        LOG.trace("cancelAllForTargets({},{} targets)", clientId, targetIds.size());
+
+        List<String> targets = new ArrayList<String>(targetIds);
+        int canceled = 0;
+
+        for (int from = 0; from < targets.size(); from += PAGE_SIZE) {
+            List<String> chunk = targets.subList(from, Math.min(targets.size(), from + PAGE_SIZE));
+            canceled += chunkTransaction.execute(status -> cancelForTargets(clientId, chunk));
+        }
+
+        return canceled;
+    }
+
+    /* Cancel the active SMS of the client for the targets, in the caller's transaction. */
+    private int cancelForTargets(String clientId, List<String> targetIds) {
+        int canceled = 0;
+
+        for (String instanceId : statusStore.findActiveForTargets(clientId, targetIds)) {
+            try {
+                if (Boolean.TRUE.equals(itemSavepoint.execute(status -> triggerCancel(instanceId)))) {
+                    LOG.debug("Canceled SMS for blocked target {}: {}", clientId, instanceId);
+                    ++canceled;
+                }
+            }
+            catch (RuntimeException e) {
+                LOG.warn("Failed to cancel SMS {} for blocked target: {}", instanceId, e.getMessage());
+            }
+        }
+
+        return canceled;
+    }
+
+    /* Trigger the cancel on the instance, returning false if it is not waiting for one. */
+    private boolean triggerCancel(String instanceId) {
+        Execution ex = runtimeService.createExecutionQuery()
+                .processInstanceId(instanceId)
                 .activityId(Constants.ACTIVITY_RECV_CANCEL)
-                .processVariableValueEquals(Constants.VAR_CLIENT_ID, clientId)
-                .list())
-        {
-            LOG.debug("Canceling SMS for client {}: {}", clientId, ex.getProcessInstanceId());
-            runtimeService.trigger(ex.getId());
+                .singleResult();
+
+        if (ex == null) {
+            return false;
         }
+
+        runtimeService.trigger(ex.getId());
+        return true;
     }
-        
+
     // Deleting (internal only) -------------------------------------------------------------------
     
     @Transactional
     public void deleteInstance(String instanceId) {
         LOG.debug("deleteInstance({})", instanceId);
+        HistoricVariableInstance payloadId = historyService.createHistoricVariableInstanceQuery()
+                .processInstanceId(instanceId)
+                .variableName(Constants.VAR_PAYLOAD_ID)
+                .singleResult();
         if (runtimeService.createProcessInstanceQuery().processInstanceId(instanceId).count() != 0) {
             runtimeService.deleteProcessInstance(instanceId, null);
+            SmsStatusStore.Row row = statusStore.find(instanceId);
+            if (row != null) { // deleting ends no listeners, so release its send reservation here
+                reservationTracker.releaseOnCommit(row.clientId(), row.dueTime());
+            }
         }
         historyService.deleteHistoricProcessInstance(instanceId);
+        statusStore.remove(instanceId);
+        clientKeyStore.remove(instanceId);
+        if (payloadId != null) {
+            payloadStore.remove((String) payloadId.getValue());
+        }
     }
 
     @Transactional
@@ -290,23 +593,79 @@ public class SmsSchedulerService {
         }
     }
 
+    // Projection ---------------------------------------------------------------------------------
+
+    /**
+     * Fill the status projection from the process history, as when starting
+     * on a database that predates it.  Instances already in the projection
+     * are skipped, so a backfill that was interrupted resumes on the next
+     * start.  Once complete it sets a marker and is not run again.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillStatusStore() {
+        if (statusStore.hasMarker(BACKFILL_MARKER)) {
+            return;
+        }
+
+        int first = 0, added = 0;
+        List<HistoricProcessInstance> page;
+        do {
+            page = historyService.createHistoricProcessInstanceQuery()
+                    .processDefinitionKey(Constants.SMS_SCHEDULER_PROCESS_NAME)
+                    .orderByProcessInstanceId().asc()
+                    .includeProcessVariables()
+                    .listPage(first, PAGE_SIZE);
+
+            for (HistoricProcessInstance hpi : page) {
+                if (statusStore.add(hpiToRow(hpi))) {
+                    ++added;
+                }
+            }
+            first += page.size();
+        } while (page.size() == PAGE_SIZE);
+
+        if (added != 0) {
+            LOG.info("Added {} process instances to the status projection", added);
+        }
+
+        statusStore.setMarker(BACKFILL_MARKER);
+    }
+
     // Helpers ------------------------------------------------------------------------------------
 
-    private SmsStatus hpiToSmsStatus(HistoricProcessInstance hpi) {
-        var pvs = hpi.getProcessVariables();
+    /* Package visible for the benchmarks. */
+    SmsStatus rowToSmsStatus(SmsStatusStore.Row row) {
         return new SmsStatus(
+                row.id(),
+                row.clientId(),
+                row.batchId(),
+                row.clientKey(),
+                row.targetId(),
+                row.status(),
+                dateHelper.format(row.dueTime()),
+                row.deadline(),
+                dateHelper.format(row.started()),
+                dateHelper.format(row.ended()),
+                row.retries(),
+                row.userId());
+    }
+
+    /* Package visible for the tests. */
+    static SmsStatusStore.Row hpiToRow(HistoricProcessInstance hpi) {
+        var pvs = hpi.getProcessVariables();
+        return new SmsStatusStore.Row(
                 hpi.getId(),
-                (String) pvs.getOrDefault(Constants.VAR_CLIENT_ID, null),
-                (String) pvs.getOrDefault(Constants.VAR_BATCH_ID, null),
-                (String) pvs.getOrDefault(Constants.VAR_CLIENT_KEY, null),
-                (String) pvs.getOrDefault(Constants.VAR_TARGET_ID, null),
-                (String) pvs.getOrDefault(Constants.VAR_SMS_STATUS, null),
-                dateHelper.format((Instant) pvs.getOrDefault(Constants.VAR_SMS_DUETIME, null)),
-                (String) pvs.getOrDefault(Constants.VAR_SMS_DEADLINE, null),
-                dateHelper.format(hpi.getStartTime()),
-                dateHelper.format(hpi.getEndTime()),
+                (String) pvs.get(Constants.VAR_CLIENT_ID),
+                (String) pvs.get(Constants.VAR_BATCH_ID),
+                (String) pvs.get(Constants.VAR_CLIENT_KEY),
+                (String) pvs.get(Constants.VAR_TARGET_ID),
+                (String) pvs.get(Constants.VAR_SMS_STATUS),
+                (Instant) pvs.get(Constants.VAR_SMS_DUETIME),
+                (String) pvs.get(Constants.VAR_SMS_DEADLINE),
+                hpi.getStartTime().toInstant(),
+                hpi.getEndTime() == null ? null : hpi.getEndTime().toInstant(),
                 (int) pvs.getOrDefault(Constants.VAR_SMS_RETRIES, -1),
-                (String) pvs.getOrDefault(Constants.VAR_USER_ID, null));
+                (String) pvs.get(Constants.VAR_USER_ID));
     }
     
     private String getAuthenticatedUser() {
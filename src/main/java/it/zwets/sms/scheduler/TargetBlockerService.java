@@ -1,88 +1,510 @@
 package it.zwets.sms.scheduler;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 import org.flowable.engine.HistoryService;
 import org.flowable.engine.ProcessEngine;
-import org.flowable.engine.RuntimeService;
 import org.flowable.engine.history.HistoricProcessInstance;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import io.micrometer.core.instrument.binder.MeterBinder;
 
 import it.zwets.sms.scheduler.SmsSchedulerConfiguration.Constants;
+import it.zwets.sms.scheduler.store.BlockedTargetStore;
+import it.zwets.sms.scheduler.util.BloomFilter;
 
 /**
  * Manages blocked targets.
- * 
+ *
  * Blocked targets are recipients that we never schedule messages for.
+ *
+ * Blocks are persisted in the {@link BlockedTargetStore}.  Blocks arriving
+ * as Kafka events start a blockTargetProcess, whose end event calls back on
+ * {@link #blockTarget(String, String)}.  That process keeps no history.
+ * Blocks from before the store existed were kept as historic block process
+ * instances; these are moved into the store at startup.
+ *
+ * As most targets are not blocked, {@link #isTargetBlocked(String, String)}
+ * first consults a per-client {@link BloomFilter}, and only goes to the store
+ * when the filter says the target may be blocked.  The filters are loaded
+ * from the store on first use and grown as needed.  Unblocking cannot clear
+ * bits, so an unblocked target costs a store lookup until the filters are
+ * rebuilt.  They are periodically rebuilt from the store by
+ * {@link #checkIndex()}, which also picks up blocks made on other nodes.
+ * Blocks added while a rebuild scans the store are replayed into the
+ * rebuilt filters, as the scan may have passed them or not see them yet.
  */
 @Service
 public class TargetBlockerService {
 
     private static final Logger LOG = LoggerFactory.getLogger(TargetBlockerService.class);
-    
-    private final RuntimeService runtimeService;
+
+    private static final int PAGE_SIZE = 1000;
+
+    /* Per-client filters are sized for twice their blocks, at least this. */
+    private static final int MIN_FILTER_CAPACITY = 1024;
+    private static final double FILTER_FPP = 0.01;
+
+    /* Number of targets written per transaction by the bulk operations. */
+    private static final int BATCH_SIZE = 1000;
+
+    /** The DTO for reporting on bulk operations */
+    public final record BulkResult(int received, int changed, int canceled) { }
+
     private final HistoryService historyService;
-    
-    public TargetBlockerService(ProcessEngine processEngine) {
-        this.runtimeService = processEngine.getRuntimeService();
+    private final BlockedTargetStore store;
+    private final SmsSchedulerService smsSchedulerService;
+
+    /* Maps clientId to the filter over its blocked targetIds; null until loaded. */
+    private volatile Map<String, BloomFilter> filters = null;
+
+    /* Adds to the filters take the read lock, the swap of rebuilt filters the write lock. */
+    private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
+    private final Object rebuildLock = new Object();
+
+    /* The blocks added while a rebuild is in progress, to replay into the rebuilt filters. */
+    private final Queue<String[]> pendingAdds = new ConcurrentLinkedQueue<String[]>();
+    private volatile boolean rebuilding = false;
+
+    /* The blocks added per client while its full filter is grown, to replay into the grown filter. */
+    private final Map<String, Queue<String>> growing = new ConcurrentHashMap<String, Queue<String>>();
+
+    private final LongAdder filterNegatives = new LongAdder();
+    private final LongAdder filterPositives = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    public TargetBlockerService(ProcessEngine processEngine, BlockedTargetStore store, SmsSchedulerService smsSchedulerService) {
         this.historyService = processEngine.getHistoryService();
+        this.store = store;
+        this.smsSchedulerService = smsSchedulerService;
     }
-    
+
     @Transactional
     public void blockTarget(String clientId, String targetId) {
 
-        if (!isTargetBlocked(clientId, targetId)) {
-            LOG.debug("Blocking target: {}:{}", clientId, targetId);
-            
-            Map<String,Object> vars = new HashMap<String,Object>();
-            
-            vars.put(Constants.VAR_CLIENT_ID, clientId);
-            vars.put(Constants.VAR_TARGET_ID, targetId);
-            
-            runtimeService.startProcessInstanceByKey(Constants.BLOCK_TARGET_PROCESS_NAME, vars);
+        if (store.add(clientId, targetId, Instant.now())) {
+            LOG.debug("Blocked target: {}:{}", clientId, targetId);
+        }
+
+        addToFilter(clientId, targetId);
+
+        // Add again once committed, as a rebuild that started before may not have seen the block
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    addToFilter(clientId, targetId);
+                }
+            });
         }
     }
-    
+
     @Transactional
     public void unblockTarget(String clientId, String targetId) {
 
-        HistoricProcessInstance hpi = historyService.createHistoricProcessInstanceQuery()
-                .processDefinitionKey(Constants.BLOCK_TARGET_PROCESS_NAME)
-                .variableValueEquals(Constants.VAR_CLIENT_ID, clientId)
-                .variableValueEquals(Constants.VAR_TARGET_ID, targetId)
-                .singleResult();
-        
-        if (hpi != null) {
-            LOG.debug("Unblocking target: {}:{}", clientId, targetId);
-            historyService.deleteHistoricProcessInstance(hpi.getId());
+        if (store.remove(clientId, targetId)) {
+            LOG.debug("Unblocked target: {}:{}", clientId, targetId);
         }
     }
-    
-    @Transactional
+
+    /**
+     * Block a stream of targets, e.g. a client's opt-out list.  Duplicates
+     * are dropped, and the blocks are written in transactions of BATCH_SIZE.
+     * Then cancels the scheduled SMS to the newly blocked targets.
+     * @param clientId the client
+     * @param targetIds the targets to block, consumed once
+     * @return the number of targets received, newly blocked, and SMS canceled
+     */
+    public BulkResult blockTargets(String clientId, Iterator<String> targetIds) {
+        LOG.debug("blockTargets({})", clientId);
+
+        Set<String> seen = new HashSet<String>();
+        Set<String> blocked = new HashSet<String>();
+        List<String> batch = new ArrayList<String>(BATCH_SIZE);
+        int received = 0;
+
+        while (targetIds.hasNext()) {
+            String targetId = targetIds.next();
+            ++received;
+            if (seen.add(targetId)) {
+                batch.add(targetId);
+                if (batch.size() == BATCH_SIZE) {
+                    blocked.addAll(store.addAll(clientId, batch, Instant.now()));
+                    batch.forEach(t -> addToFilter(clientId, t));
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            blocked.addAll(store.addAll(clientId, batch, Instant.now()));
+            batch.forEach(t -> addToFilter(clientId, t));
+        }
+
+        int canceled = smsSchedulerService.cancelAllForTargets(clientId, blocked);
+
+        LOG.info("Bulk blocked {} of {} targets for client {}, canceled {} SMS", blocked.size(), received, clientId, canceled);
+        return new BulkResult(received, blocked.size(), canceled);
+    }
+
+    /**
+     * Unblock a stream of targets.  Duplicates are dropped, and the blocks
+     * are removed in transactions of BATCH_SIZE.
+     * @param clientId the client
+     * @param targetIds the targets to unblock, consumed once
+     * @return the number of targets received and unblocked
+     */
+    public BulkResult unblockTargets(String clientId, Iterator<String> targetIds) {
+        LOG.debug("unblockTargets({})", clientId);
+
+        Set<String> seen = new HashSet<String>();
+        List<String> batch = new ArrayList<String>(BATCH_SIZE);
+        int received = 0, unblocked = 0;
+
+        while (targetIds.hasNext()) {
+            String targetId = targetIds.next();
+            ++received;
+            if (seen.add(targetId)) {
+                batch.add(targetId);
+                if (batch.size() == BATCH_SIZE) {
+                    unblocked += store.removeAll(clientId, batch);
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            unblocked += store.removeAll(clientId, batch);
+        }
+
+        LOG.info("Bulk unblocked {} of {} targets for client {}", unblocked, received, clientId);
+        return new BulkResult(received, unblocked, 0);
+    }
+
+    /**
+     * Check whether a target is blocked, going to the store only if the
+     * client's Bloom filter says it may be
+     * @param clientId the client
+     * @param targetId the target
+     * @return true if the target is blocked for the client
+     */
     public boolean isTargetBlocked(String clientId, String targetId) {
         LOG.trace("isTargetBlocked({},{})", clientId, targetId);
-        
-        return historyService.createHistoricProcessInstanceQuery()
-                .processDefinitionKey(Constants.BLOCK_TARGET_PROCESS_NAME)
-                .variableValueEquals(Constants.VAR_CLIENT_ID, clientId)
-                .variableValueEquals(Constants.VAR_TARGET_ID, targetId)
-                .count() != 0;
+
+        if (clientId == null || targetId == null) {
+            return false;
+        }
+
+        BloomFilter filter = getFilters().get(clientId);
+        if (filter == null || !filter.mightContain(targetId)) {
+            filterNegatives.increment();
+            return false;
+        }
+
+        filterPositives.increment();
+        boolean blocked = store.contains(clientId, targetId);
+        if (!blocked) {
+            falsePositives.increment();
+        }
+        return blocked;
     }
 
-    @Transactional
     public String getBlockedTargets(String clientId) {
         LOG.trace("getBlockedTargets({})", clientId);
-        
-        return historyService.createHistoricProcessInstanceQuery()
-                .processDefinitionKey(Constants.BLOCK_TARGET_PROCESS_NAME)
-                .variableValueEquals(Constants.VAR_CLIENT_ID, clientId)
-                .includeProcessVariables()
-                .list().stream().map(i -> (String)i.getProcessVariables().get(Constants.VAR_TARGET_ID))
-                    .collect(Collectors.joining("\n")).concat("\n");
+
+        return store.getTargets(clientId).stream()
+                .collect(Collectors.joining("\n")).concat("\n");
+    }
+
+    /**
+     * Write the blocked targets for a client, one per line, reading them
+     * from the store a page at a time, so that lists of any size can be
+     * exported in constant memory
+     * @param clientId the client
+     * @param since only write targets blocked at or after this instant, or null for all
+     * @param out the writer to write to (flushed, not closed)
+     * @throws IOException when writing fails
+     */
+    public void writeBlockedTargets(String clientId, Instant since, Writer out) throws IOException {
+        LOG.trace("writeBlockedTargets({},{})", clientId, since);
+
+        try {
+            store.forEachTarget(clientId, since, targetId -> {
+                try {
+                    out.write(targetId);
+                    out.write('\n');
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Move the blocks still held as historic blockTargetProcess instances
+     * into the store.  Each instance is deleted after its block was stored,
+     * so an interrupted import simply resumes on the next run.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void importBlockProcesses() {
+
+        int count = 0;
+
+        List<HistoricProcessInstance> page;
+        do {
+            page = historyService.createHistoricProcessInstanceQuery()
+                    .processDefinitionKey(Constants.BLOCK_TARGET_PROCESS_NAME)
+                    .orderByProcessInstanceId().asc()
+                    .includeProcessVariables()
+                    .listPage(0, PAGE_SIZE);
+
+            for (HistoricProcessInstance hpi : page) {
+                String clientId = (String) hpi.getProcessVariables().get(Constants.VAR_CLIENT_ID);
+                String targetId = (String) hpi.getProcessVariables().get(Constants.VAR_TARGET_ID);
+                if (clientId != null && targetId != null) {
+                    store.add(clientId, targetId, hpi.getStartTime().toInstant());
+                }
+                historyService.deleteHistoricProcessInstance(hpi.getId());
+            }
+            count += page.size();
+        } while (page.size() == PAGE_SIZE);
+
+        if (count != 0) {
+            LOG.info("Imported {} block processes into the blocked target store", count);
+            checkIndex();
+        }
+    }
+
+    /**
+     * Rebuild the Bloom filters from the store.  Logs a warning if the old
+     * filters missed blocks in the store, which happens when blocks were
+     * added on other nodes.
+     * @return the number of stored blocks that the old filters missed
+     */
+    @Scheduled(initialDelayString = "${sms.scheduler.config.block-index-check-interval:PT5M}",
+            fixedDelayString = "${sms.scheduler.config.block-index-check-interval:PT5M}")
+    public int checkIndex() {
+
+        synchronized (rebuildLock) {
+
+            Map<String, BloomFilter> current = getFilters();
+            int[] missed = new int[1];
+
+            pendingAdds.clear();
+            rebuilding = true;
+
+            try {
+                Map<String, BloomFilter> loaded = loadFilters((clientId, targetId) -> {
+                    BloomFilter filter = current.get(clientId);
+                    if (filter == null || !filter.mightContain(targetId)) {
+                        ++missed[0];
+                    }
+                });
+
+                swapLock.writeLock().lock();
+                try {
+                    filters = loaded;
+                    rebuilding = false;
+                    String[] add;
+                    while ((add = pendingAdds.poll()) != null) {
+                        addToFilter(loaded, add[0], add[1]);
+                    }
+                }
+                finally {
+                    swapLock.writeLock().unlock();
+                }
+            }
+            finally {
+                rebuilding = false;
+                pendingAdds.clear();
+            }
+
+            if (missed[0] != 0) {
+                LOG.warn("Blocked target filters missed {} blocks in the store, rebuilt", missed[0]);
+            }
+            else {
+                LOG.debug("Blocked target filters rebuilt");
+            }
+
+            return missed[0];
+        }
+    }
+
+    /* Return the filters, loading them on first use. */
+    private Map<String, BloomFilter> getFilters() {
+        Map<String, BloomFilter> result = filters;
+        if (result == null) {
+            synchronized (this) {
+                result = filters;
+                if (result == null) {
+                    result = filters = loadFilters((c, t) -> {});
+                }
+            }
+        }
+        return result;
+    }
+
+    /* Load the filters from the store, passing every block also to visitor. */
+    private Map<String, BloomFilter> loadFilters(BiConsumer<String, String> visitor) {
+        LOG.debug("Loading blocked target filters");
+
+        Map<String, BloomFilter> result = new ConcurrentHashMap<String, BloomFilter>();
+        store.getCounts().forEach((clientId, count) -> result.put(clientId, newFilter(count)));
+
+        store.forEach((clientId, targetId) -> {
+            result.computeIfAbsent(clientId, c -> newFilter(0)).add(targetId);
+            visitor.accept(clientId, targetId);
+        });
+
+        return result;
+    }
+
+    /* Add to the client's filter, and to the adds to replay if a rebuild or grow is in progress. */
+    private void addToFilter(String clientId, String targetId) {
+        Queue<String> grow = null;
+
+        swapLock.readLock().lock();
+        try {
+            boolean full = addToFilter(getFilters(), clientId, targetId);
+            if (rebuilding) {
+                pendingAdds.add(new String[] { clientId, targetId });
+            }
+            Queue<String> queue = growing.get(clientId);
+            if (queue == null && full) {
+                Queue<String> created = new ConcurrentLinkedQueue<String>();
+                queue = growing.putIfAbsent(clientId, created);
+                if (queue == null) {
+                    queue = grow = created;
+                }
+            }
+            if (queue != null) {
+                queue.add(targetId);
+            }
+        }
+        finally {
+            swapLock.readLock().unlock();
+        }
+
+        if (grow != null) {
+            growFilter(clientId, grow);
+        }
+    }
+
+    /* Add to the client's filter in target, returning true if the filter is over capacity. */
+    private static boolean addToFilter(Map<String, BloomFilter> target, String clientId, String targetId) {
+        BloomFilter filter = target.computeIfAbsent(clientId, c -> newFilter(0));
+        filter.add(targetId);
+        return filter.getCount() > filter.getCapacity();
+    }
+
+    /*
+     * Replace the client's full filter by one sized for its blocks in the store.  The blocks
+     * are loaded without holding a lock; the adds queued meanwhile are replayed into the new
+     * filter under the write lock, which installs it unless a rebuild swapped the filters.
+     */
+    private void growFilter(String clientId, Queue<String> queue) {
+        try {
+            Map<String, BloomFilter> current = getFilters();
+            List<String> targets = store.getTargets(clientId);
+            LOG.debug("Growing blocked target filter for client {} to {} targets", clientId, targets.size());
+
+            BloomFilter grown = newFilter(targets.size());
+            targets.forEach(grown::add);
+
+            swapLock.writeLock().lock();
+            try {
+                queue.forEach(grown::add);
+                if (filters == current) {
+                    current.put(clientId, grown);
+                }
+                growing.remove(clientId);
+            }
+            finally {
+                swapLock.writeLock().unlock();
+            }
+        }
+        finally {
+            growing.remove(clientId, queue);
+        }
+    }
+
+    private static BloomFilter newFilter(int count) {
+        return new BloomFilter(Math.max(MIN_FILTER_CAPACITY, 2 * count), FILTER_FPP);
+    }
+
+    /**
+     * Micrometer binder for the Bloom filter statistics
+     */
+    public static class Metrics implements MeterBinder {
+
+        private final TargetBlockerService service;
+
+        public Metrics(TargetBlockerService service) {
+            this.service = service;
+        }
+
+        @Override
+        public void bindTo(MeterRegistry registry) {
+            Gauge.builder("sms.blocker.filter.size", service, s -> s.getFilters().values().stream()
+                    .mapToLong(f -> f.getNumBits() / 8).sum())
+                .description("Memory taken by the blocked target Bloom filters")
+                .baseUnit(BaseUnits.BYTES)
+                .register(registry);
+            Gauge.builder("sms.blocker.filter.entries", service, s -> s.getFilters().values().stream()
+                    .mapToLong(BloomFilter::getCount).sum())
+                .description("Number of targets added to the blocked target Bloom filters")
+                .register(registry);
+            Gauge.builder("sms.blocker.filter.fpp.expected", service, s -> s.getFilters().values().stream()
+                    .mapToDouble(BloomFilter::getExpectedFpp).max().orElse(0.0))
+                .description("Highest estimated false-positive rate across the client filters")
+                .register(registry);
+            Gauge.builder("sms.blocker.filter.fpp.observed", service, s -> {
+                    double lookups = s.filterNegatives.sum() + s.falsePositives.sum();
+                    return lookups == 0 ? 0.0 : s.falsePositives.sum() / lookups;
+                })
+                .description("Fraction of lookups of non-blocked targets that the filters passed to the store")
+                .register(registry);
+            FunctionCounter.builder("sms.blocker.filter.lookups", service, s -> s.filterNegatives.sum())
+                .description("Lookups answered by the Bloom filter alone")
+                .tag("result", "negative")
+                .register(registry);
+            FunctionCounter.builder("sms.blocker.filter.lookups", service, s -> s.filterPositives.sum())
+                .description("Lookups passed on to the store")
+                .tag("result", "positive")
+                .register(registry);
+        }
     }
 }
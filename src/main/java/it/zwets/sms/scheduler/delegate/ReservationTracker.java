@@ -0,0 +1,115 @@
+package it.zwets.sms.scheduler.delegate;
+
+import java.time.Instant;
+
+import org.flowable.engine.delegate.DelegateExecution;
+import org.flowable.engine.delegate.ExecutionListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import it.zwets.sms.scheduler.SmsSchedulerConfiguration.Constants;
+import it.zwets.sms.scheduler.store.SmsStatusStore;
+import it.zwets.sms.scheduler.util.DueTimePlanner;
+
+/**
+ * Keeps the send reservations of the {@link DueTimePlanner} in step with
+ * the scheduled SMS.
+ *
+ * The {@link TriageDelegate} reserves the due time it plans.  The tracker
+ * releases that reservation when the triage rolls back, and when the SMS
+ * ends or is deleted before its due time, as when it is canceled or its
+ * target is blocked.  It is attached as {@link ExecutionListener} to the
+ * end of the smsSchedulerProcess, and releases once the end commits.
+ *
+ * At startup it restores the reservations of the SMS that are scheduled
+ * in the {@link SmsStatusStore}, as the planner keeps them in memory.
+ *
+ * @author zwets
+ */
+public class ReservationTracker implements ExecutionListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReservationTracker.class);
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient DueTimePlanner planner;
+    private final transient SmsStatusStore statusStore;
+
+    public ReservationTracker(DueTimePlanner planner, SmsStatusStore statusStore) {
+        this.planner = planner;
+        this.statusStore = statusStore;
+    }
+
+    @Override
+    public void notify(DelegateExecution execution) {
+        if (execution.isProcessInstanceType() && EVENTNAME_END.equals(execution.getEventName())) {
+            releaseOnCommit(
+                    execution.getVariable(Constants.VAR_CLIENT_ID, String.class),
+                    execution.getVariable(Constants.VAR_SMS_DUETIME, Instant.class));
+        }
+    }
+
+    /**
+     * Release the reservation for a due time when the current transaction
+     * commits, or now if there is none, unless the due time has passed
+     * @param clientId the client
+     * @param dueTime the due time of the SMS, or null if it has none
+     */
+    public void releaseOnCommit(String clientId, Instant dueTime) {
+        if (planner.isEnabled() && dueTime != null && dueTime.isAfter(Instant.now())) {
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCommit() {
+                        release(clientId, dueTime);
+                    }
+                });
+            }
+            else {
+                release(clientId, dueTime);
+            }
+        }
+    }
+
+    /**
+     * Release the reservation for a due time if the current transaction rolls back
+     * @param clientId the client
+     * @param dueTime the due time that was reserved
+     */
+    public void releaseOnRollback(String clientId, Instant dueTime) {
+        if (planner.isEnabled() && TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_ROLLED_BACK) {
+                        release(clientId, dueTime);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Restore the reservations of the SMS that are scheduled after now.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void restoreReservations() {
+        if (planner.isEnabled()) {
+            int[] count = new int[1];
+            statusStore.forEachScheduled(Instant.now(), (clientId, dueTime) -> {
+                planner.restore(clientId, dueTime);
+                ++count[0];
+            });
+            LOG.info("Restored the send reservations of {} scheduled SMS", count[0]);
+        }
+    }
+
+    private void release(String clientId, Instant dueTime) {
+        LOG.debug("Releasing send reservation for client {} at {}", clientId, dueTime);
+        planner.release(clientId, dueTime);
+    }
+}
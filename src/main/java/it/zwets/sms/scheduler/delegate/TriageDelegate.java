@@ -11,7 +11,9 @@ import org.slf4j.LoggerFactory;
 
 import it.zwets.sms.scheduler.SmsSchedulerConfiguration.Constants;
 import it.zwets.sms.scheduler.TargetBlockerService;
+import it.zwets.sms.scheduler.util.DueTimePlanner;
 import it.zwets.sms.scheduler.util.Scheduler;
+import it.zwets.sms.scheduler.util.SchedulerCache;
 
 /**
  * Triages incoming SMS schedule request and retries.
@@ -23,18 +25,29 @@ public class TriageDelegate implements JavaDelegate {
     private static final Logger LOG = LoggerFactory.getLogger(TriageDelegate.class);
 
     private final TargetBlockerService blockerService;
+    private final SchedulerCache schedulerCache;
+    private final DueTimePlanner planner;
+    private final ReservationTracker reservationTracker;
     private final Duration waitAfterFail;
     private final Duration maxAddJitter;
     
     /**
      * Constructor with its injectable configuration parameters.
-     * @param maxAddJitter maximum random duration to add to initial send
+     * @param blockerService the service to check for blocked targets
+     * @param schedulerCache the cache of parsed schedules
+     * @param planner plans the due times into the slots within the send budgets
+     * @param reservationTracker releases the planned due time if the triage rolls back
+     * @param maxAddJitter maximum random duration to add to initial send, when no send budget is set
      * @param waitAfterFail duration to wait before rescheduling after fail
      */
-    public TriageDelegate(TargetBlockerService blockerService, Duration waitAfterFail, Duration maxAddJitter) {
+    public TriageDelegate(TargetBlockerService blockerService, SchedulerCache schedulerCache, DueTimePlanner planner,
+            ReservationTracker reservationTracker, Duration waitAfterFail, Duration maxAddJitter) {
         LOG.debug("TriageDelegate created with "
                 + "waitAfterFail = {} and maxAddJitter = {}", waitAfterFail, maxAddJitter);
         this.blockerService = blockerService;
+        this.schedulerCache = schedulerCache;
+        this.planner = planner;
+        this.reservationTracker = reservationTracker;
         this.waitAfterFail = waitAfterFail;
         this.maxAddJitter = maxAddJitter;
     }
@@ -48,7 +61,7 @@ public class TriageDelegate implements JavaDelegate {
         String targetId = execution.getVariable(Constants.VAR_TARGET_ID, String.class);
         String clientKey = execution.getVariable(Constants.VAR_CLIENT_KEY, String.class);
         String schedule = execution.getVariable(Constants.VAR_SCHEDULE, String.class);
-        Scheduler scheduler = new Scheduler(schedule);
+        Scheduler scheduler = schedulerCache.get(schedule);
 
         String smsStatus = execution.hasVariable(Constants.VAR_SMS_STATUS)
                 ? execution.getVariable(Constants.VAR_SMS_STATUS, String.class)
@@ -60,7 +73,13 @@ public class TriageDelegate implements JavaDelegate {
 
         Instant smsDueTime = null;
         Instant deadlineInstant = null;
-        
+
+        if (smsRetries == -1 && Constants.SMS_STATUS_INVALID.equals(smsStatus)) {
+            LOG.debug("Request is invalid, not scheduling: {}:{}", clientId, clientKey);
+
+            return;
+        }
+
         if (blockerService.isTargetBlocked(clientId, targetId)) {
             LOG.debug("Target is blocked: {}:{}", clientId, targetId);
             execution.setVariable(Constants.VAR_SMS_STATUS, Constants.SMS_STATUS_BLOCKED);
@@ -76,8 +95,9 @@ public class TriageDelegate implements JavaDelegate {
                 
                 deadlineInstant = scheduler.getDeadlineInstant(smsDueTime);
 
-                // Unless SMS is due in the next minute (intended immediately) add jitter
-                if (smsDueTime.isAfter(Instant.now().plusMillis(60 * 1000))) {
+                // Unless SMS is due in the next minute (intended immediately) add jitter,
+                // or the planner spreads the sends within the send budgets instead
+                if (!planner.isEnabled() && smsDueTime.isAfter(Instant.now().plusMillis(60 * 1000))) {
 
                     long jitter = Math.round(Math.random() * maxAddJitter.getSeconds());
                     LOG.debug("Adding {}s jitter", jitter);
@@ -139,10 +159,13 @@ public class TriageDelegate implements JavaDelegate {
                         clientId, targetId, clientKey);
             }
             else {
-                // Add jitter to prevent all retries to sit on the dot of start of next slot
-                long jitter = Math.round(Math.random() * maxAddJitter.getSeconds());
-                smsDueTime = smsDueTime.plusSeconds(jitter);
-                deadlineInstant = deadlineInstant.plusSeconds(jitter);
+                // Add jitter to prevent all retries to sit on the dot of start of next slot,
+                // unless the planner spreads them within the send budgets
+                if (!planner.isEnabled()) {
+                    long jitter = Math.round(Math.random() * maxAddJitter.getSeconds());
+                    smsDueTime = smsDueTime.plusSeconds(jitter);
+                    deadlineInstant = deadlineInstant.plusSeconds(jitter);
+                }
 
                 LOG.info("Scheduling retry [{}] for {} request at {}: {}:{}:{}:{}",
                         smsRetries+1, smsStatus, smsDueTime,
@@ -151,6 +174,22 @@ public class TriageDelegate implements JavaDelegate {
             }
         }
         
+        // Move the due time to the first slot where the client and global send budgets have room
+        if (smsDueTime != null && planner.isEnabled()) {
+            DueTimePlanner.Plan plan = planner.plan(clientId, scheduler, smsDueTime, deadlineInstant);
+            if (plan != null) {
+                if (plan.spills() > 0) {
+                    LOG.info("No send budget for client {} in slot, planned {} slot(s) later at {}", clientId, plan.spills(), plan.dueTime());
+                }
+                smsDueTime = plan.dueTime();
+                deadlineInstant = plan.deadline();
+                reservationTracker.releaseOnRollback(clientId, smsDueTime);
+            }
+            else {
+                LOG.warn("No send budget for client {} in any slot, scheduling at {}", clientId, smsDueTime);
+            }
+        }
+
         smsStatus = smsDueTime == null ? Constants.SMS_STATUS_EXPIRED : Constants.SMS_STATUS_SCHEDULED;
         String smsDeadline = deadlineInstant == null ? null : deadlineInstant.toString();
         
@@ -159,4 +198,4 @@ public class TriageDelegate implements JavaDelegate {
         execution.setVariable(Constants.VAR_SMS_STATUS, smsStatus);
         execution.setVariable(Constants.VAR_SMS_RETRIES, smsRetries + 1);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,127 @@
+package it.zwets.sms.scheduler.diag;
+
+import java.time.Instant;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded queue of process events, logged by a background thread.
+ *
+ * The {@link ProcessLogger} in async mode only captures an {@link Event}
+ * on the engine thread, and offers it here.  Formatting and logging happen
+ * on the <code>process-log</code> thread.  When the queue is full, events
+ * are dropped rather than slowing the engine, and the drops are counted
+ * and reported in the log.
+ *
+ * Events are logged at <code>INFO</code> as <code>key=value</code> pairs.
+ *
+ * @author zwets
+ */
+public class AsyncEventLog implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProcessLogger.class);
+
+    /** Number of events the queue holds */
+    public static final int CAPACITY = 8192;
+
+    /* Time that close() waits for the queued events to be logged. */
+    private static final long CLOSE_WAIT_MILLIS = 5000;
+
+    /** A process event as captured on the engine thread; status is null unless detailed */
+    public final record Event(long time, String definitionId, String instanceId, String executionId,
+            String elementId, String eventName, String status) { }
+
+    private final BlockingQueue<Event> queue;
+    private final Consumer<Event> sink;
+    private final LongAdder dropped = new LongAdder();
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    public AsyncEventLog() {
+        this(CAPACITY, AsyncEventLog::log);
+    }
+
+    /* Constructor with the queue capacity and the handler of the events, for testing. */
+    AsyncEventLog(int capacity, Consumer<Event> sink) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.sink = sink;
+        worker = new Thread(this::drain, "process-log");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Queue an event for logging, or drop it if the queue is full
+     * @param event the event
+     */
+    public void offer(Event event) {
+        if (!queue.offer(event)) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Number of events dropped since creation
+     * @return the count
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Stop the thread after it has logged the queued events, waiting
+     * for it a limited time.
+     */
+    @Override
+    public void close() {
+        running = false;
+        worker.interrupt();
+        try {
+            worker.join(CLOSE_WAIT_MILLIS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain() {
+        long reported = 0;
+        while (running || !queue.isEmpty()) {
+            try {
+                Event e = queue.poll(1, TimeUnit.SECONDS);
+                if (e != null) {
+                    sink.accept(e);
+                }
+                long drops = dropped.sum();
+                if (drops != reported) {
+                    LOG.warn("Process log queue full, dropped {} events", drops - reported);
+                    reported = drops;
+                }
+            }
+            catch (InterruptedException ex) {
+                // close() was called, log what is queued and stop
+            }
+            catch (RuntimeException ex) {
+                LOG.warn("Failed to log process event: {}", ex.getMessage());
+            }
+        }
+    }
+
+    private static void log(Event e) {
+        if (e.status() == null) {
+            LOG.info("t={} evt={} el={} def={} pi={} ex={}", Instant.ofEpochMilli(e.time()), e.eventName(), e.elementId(),
+                    StringUtils.substringBefore(e.definitionId(), ':'), e.instanceId(), e.executionId());
+        }
+        else {
+            LOG.info("t={} evt={} el={} def={} pi={} ex={} status={}", Instant.ofEpochMilli(e.time()), e.eventName(), e.elementId(),
+                    StringUtils.substringBefore(e.definitionId(), ':'), e.instanceId(), e.executionId(), e.status());
+        }
+    }
+}
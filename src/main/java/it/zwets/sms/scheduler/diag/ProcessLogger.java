@@ -1,11 +1,16 @@
 package it.zwets.sms.scheduler.diag;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import org.apache.commons.lang3.StringUtils;
 import org.flowable.engine.delegate.DelegateExecution;
 import org.flowable.engine.delegate.ExecutionListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import it.zwets.sms.scheduler.SmsSchedulerConfiguration.Constants;
+
 /**
  * The singleton {@link ExecutionListener} that we attach at specific points
  * in the process definitions, so as to have insight in significant events.
@@ -15,9 +20,18 @@ import org.slf4j.LoggerFactory;
  * When its property <code>detailed</code> is set, it also logs all variables
  * that are set on the current execution using {@link VariableLogger}.
  * 
+ * When <code>async</code>, it only captures a compact event on the engine
+ * thread and leaves formatting and logging to an {@link AsyncEventLog}.
+ * In that mode <code>detailed</code> adds just the SMS status to the event.
+ * 
+ * Events can be sampled per activity with a <code>sampling</code> spec such
+ * as <code>sendTask=1,*=0.01</code>, mapping activity ids (or <code>*</code>
+ * for the rest) to the fraction of process instances to log.  Instances are
+ * picked by hash of their id, so a sampled instance is logged throughout.
+ * 
  * @author zwets
  */
-public class ProcessLogger implements ExecutionListener {
+public class ProcessLogger implements ExecutionListener, AutoCloseable {
 
     private final Logger LOG = LoggerFactory.getLogger(ProcessLogger.class);
 	
@@ -26,12 +40,27 @@ public class ProcessLogger implements ExecutionListener {
 	private final VariableLogger variableLogger;
 	private final boolean enabled;
 	private final boolean detailed;
+	private final AsyncEventLog asyncLog;
+	private final Map<String, Double> sampling;
+	private final double defaultRate;
 
-	public ProcessLogger(VariableLogger variableLogger, boolean enabled, boolean detailed) {
+	/**
+	 * Constructor with its configuration parameters
+	 * @param variableLogger logs the variables when detailed and not async
+	 * @param enabled when false, nothing is logged
+	 * @param detailed whether to log variables (or only the status when async)
+	 * @param asyncLog the async log to queue events to, or null to log synchronously
+	 * @param sampling the sampling spec, or null or empty to log all
+	 */
+	public ProcessLogger(VariableLogger variableLogger, boolean enabled, boolean detailed, AsyncEventLog asyncLog, String sampling) {
 	    this.variableLogger = variableLogger;
 	    this.enabled = enabled;
 	    this.detailed = detailed;
+	    this.asyncLog = asyncLog;
+	    this.sampling = parseSampling(sampling);
+	    this.defaultRate = this.sampling.getOrDefault("*", 1.0);
 	}
+
 	/**
 	 * When not enabled, no output whatsoever will be logged.
 	 * @return
@@ -48,10 +77,29 @@ public class ProcessLogger implements ExecutionListener {
 		return detailed;
 	}
 
+	/**
+	 * When async, events are logged on a background thread.
+	 * @return whether logging is async
+	 */
+	public boolean isAsync() {
+		return asyncLog != null;
+	}
+
 	@Override
 	public void notify(DelegateExecution execution) {
 		
-		if (enabled && LOG.isInfoEnabled()) {
+		if (enabled && LOG.isInfoEnabled() && isSampled(execution)) {
+
+			if (asyncLog != null) {
+				asyncLog.offer(new AsyncEventLog.Event(System.currentTimeMillis(),
+					execution.getProcessDefinitionId(),
+					execution.getProcessInstanceId(),
+					execution.getId(),
+					execution.getCurrentActivityId(),
+					execution.getEventName(),
+					detailed ? execution.getVariable(Constants.VAR_SMS_STATUS, String.class) : null));
+				return;
+			}
 			
 			LOG.info("Execution is at D:P:X/M:A:E {}:{}:{}/{}:{}:{}",
 				StringUtils.substringBefore(execution.getProcessDefinitionId(), ':'),
@@ -66,4 +114,55 @@ public class ProcessLogger implements ExecutionListener {
 			}
 		}
 	}
+
+	/**
+	 * Stops the async log, if any, after it has logged the queued events.
+	 */
+	@Override
+	public void close() {
+		if (asyncLog != null) {
+			asyncLog.close();
+		}
+	}
+
+	/* Whether the execution's instance falls in the sample for its activity. */
+	private boolean isSampled(DelegateExecution execution) {
+		return isSampled(execution.getCurrentActivityId(), execution.getProcessInstanceId());
+	}
+
+	/* Whether an instance falls in the sample for an activity; package visible for testing. */
+	boolean isSampled(String activityId, String instanceId) {
+		double rate = sampling.isEmpty() ? 1.0 : sampling.getOrDefault(activityId, defaultRate);
+		if (rate >= 1.0) {
+			return true;
+		}
+		return rate > 0.0 && instanceId != null
+				&& (instanceId.hashCode() & Integer.MAX_VALUE) % 10000 < rate * 10000;
+	}
+
+	/**
+	 * Parse a sampling spec of comma-separated <code>activity=rate</code> pairs
+	 * @param spec the spec, may be null or empty
+	 * @return map of activity id (or <code>*</code>) to rate
+	 * @throws IllegalArgumentException if the spec is invalid
+	 */
+	static Map<String, Double> parseSampling(String spec) {
+		Map<String, Double> rates = new HashMap<String, Double>();
+		if (StringUtils.isNotBlank(spec)) {
+			for (String pair : spec.split(",")) {
+				String activity = StringUtils.substringBefore(pair, '=').trim();
+				try {
+					double rate = Double.parseDouble(StringUtils.substringAfter(pair, '=').trim());
+					if (activity.isEmpty() || rate < 0.0 || rate > 1.0) {
+						throw new NumberFormatException();
+					}
+					rates.put(activity, rate);
+				}
+				catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Invalid sampling (need activity=rate, rate in [0,1]): " + pair);
+				}
+			}
+		}
+		return rates;
+	}
 }
@@ -0,0 +1,54 @@
+package it.zwets.sms.scheduler.diag;
+
+import java.time.Instant;
+import java.util.List;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+
+import it.zwets.sms.scheduler.util.DateHelper;
+import it.zwets.sms.scheduler.util.DueTimePlanner;
+
+/**
+ * Actuator endpoint <code>smsforecast</code> reporting the sends planned
+ * per time bucket against the send budget, in total or for a client.
+ *
+ * Query parameters are <code>client</code> (default all clients),
+ * <code>minutes</code> ahead (default 60) and <code>bucket</code> length
+ * in seconds (default 60).  The forecast covers the sends planned by the
+ * {@link DueTimePlanner} on this node, and is empty when no budget is set.
+ *
+ * @author zwets
+ */
+@Endpoint(id = "smsforecast")
+public class SendForecastEndpoint {
+
+    /* Bound on the buckets in a forecast. */
+    private static final int MAX_BUCKETS = 1440;
+
+    /** The DTO for one bucket; capacity 0 means no limit */
+    public final record Bucket(String start, int planned, int capacity, double utilization) { }
+
+    /** The DTO for the forecast */
+    public final record Forecast(String time, String client, int bucketSeconds, List<Bucket> buckets) { }
+
+    private final DueTimePlanner planner;
+    private final DateHelper dateHelper;
+
+    public SendForecastEndpoint(DueTimePlanner planner, DateHelper dateHelper) {
+        this.planner = planner;
+        this.dateHelper = dateHelper;
+    }
+
+    @ReadOperation
+    public Forecast forecast(@Nullable String client, @Nullable Integer minutes, @Nullable Integer bucket) {
+        Instant now = Instant.now();
+        int bucketSeconds = bucket == null ? 60 : Math.max(1, bucket);
+        long seconds = Math.min(60L * (minutes == null ? 60 : Math.max(0, minutes)), (long) MAX_BUCKETS * bucketSeconds);
+        List<Bucket> buckets = planner.forecast(client, now, now.plusSeconds(seconds), bucketSeconds).stream()
+                .map(b -> new Bucket(dateHelper.format(b.start()), b.reserved(), b.capacity(), b.utilization()))
+                .toList();
+        return new Forecast(dateHelper.format(now), client, bucketSeconds, buckets);
+    }
+}
@@ -0,0 +1,146 @@
+package it.zwets.sms.scheduler.diag;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.flowable.bpmn.model.FlowElement;
+import org.flowable.engine.delegate.DelegateExecution;
+import org.flowable.engine.delegate.ExecutionListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import it.zwets.sms.scheduler.SmsSchedulerConfiguration.Constants;
+
+/**
+ * The singleton {@link ExecutionListener} that records the SMS lifecycle
+ * in Micrometer metrics.  Attached alongside the {@link ProcessLogger} at
+ * the points in the smsSchedulerProcess where the SMS status changes.
+ *
+ * Records, all tagged with the client:
+ * <ul>
+ * <li><b>sms.status</b>: counter of SMS entering each status</li>
+ * <li><b>sms.timer.lag</b>: timer of the firing of the scheduler timer after smsDueTime</li>
+ * <li><b>sms.send.lag</b>: timer of the actual send time after smsDueTime</li>
+ * <li><b>sms.ack.latency</b>: timer of the send to the gateway's acknowledgement</li>
+ * <li><b>sms.retries</b>: summary of the retries per ended SMS</li>
+ * </ul>
+ *
+ * The send time for the ack latency is kept in memory, so sends that are
+ * acknowledged after a restart, or on another node, are not timed.
+ *
+ * @author zwets
+ */
+public class SmsMetrics implements ExecutionListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SmsMetrics.class);
+
+    private static final long serialVersionUID = 1L;
+
+    /* Bound on the in-flight sends we time, in case their ends get lost. */
+    private static final int MAX_SENDS_TIMED = 100000;
+
+    private final transient MeterRegistry registry;
+    private final transient Map<String, Long> sendStarts = new ConcurrentHashMap<>();
+
+    public SmsMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void notify(DelegateExecution execution) {
+        try {
+            record(execution);
+        }
+        catch (RuntimeException e) { // metrics must never fail the process
+            LOG.warn("Failed to record metrics for {}: {}", execution.getId(), e.getMessage());
+        }
+    }
+
+    private void record(DelegateExecution execution) {
+
+        String clientId = execution.getVariable(Constants.VAR_CLIENT_ID, String.class);
+        String event = execution.getEventName();
+
+        if (execution.isProcessInstanceType()) {
+            if (EVENTNAME_START.equals(event)) {
+                countStatus(clientId, Constants.SMS_STATUS_NEW);
+            }
+            else if (EVENTNAME_END.equals(event)) {
+                Integer retries = execution.getVariable(Constants.VAR_SMS_RETRIES, Integer.class);
+                DistributionSummary.builder("sms.retries")
+                    .description("Number of retries of an SMS, recorded when it ends")
+                    .tag("client", String.valueOf(clientId))
+                    .register(registry)
+                    .record(retries == null ? 0 : Math.max(0, retries));
+                sendStarts.remove(execution.getId());
+            }
+            return;
+        }
+
+        FlowElement element = execution.getCurrentFlowElement();
+        String elementId = element == null ? null : element.getId();
+
+        if ("sendTask".equals(elementId)) {
+            if (EVENTNAME_START.equals(event)) {
+                Instant due = execution.getVariable(Constants.VAR_SMS_DUETIME, Instant.class);
+                if (due != null) {
+                    timer("sms.send.lag", "Time from the due time of an SMS to its actual send", clientId)
+                        .record(Duration.between(due, Instant.now()));
+                }
+                if (sendStarts.size() < MAX_SENDS_TIMED) {
+                    sendStarts.put(execution.getProcessInstanceId(), System.nanoTime());
+                }
+            }
+            else if (EVENTNAME_END.equals(event)) {
+                Long start = sendStarts.remove(execution.getProcessInstanceId());
+                String status = execution.getVariable(Constants.VAR_SMS_STATUS, String.class);
+                if (!Constants.SMS_STATUS_ENROUTE.equals(status)) { // else ended by the send timeout
+                    countStatus(clientId, status);
+                    if (start != null) {
+                        timer("sms.ack.latency", "Time from the send of an SMS to its acknowledgement by the gateway", clientId)
+                            .record(Duration.ofNanos(System.nanoTime() - start));
+                    }
+                }
+            }
+        }
+        else if ("schedulerTimer".equals(elementId)) {
+            Instant due = execution.getVariable(Constants.VAR_SMS_DUETIME, Instant.class);
+            if (due != null) {
+                timer("sms.timer.lag", "Time from the due time of an SMS to the firing of its scheduler timer", clientId)
+                    .record(Duration.between(due, Instant.now()));
+            }
+        }
+        else if ("sendTimeout".equals(elementId)) {
+            sendStarts.remove(execution.getProcessInstanceId());
+        }
+        else {  // the end of triage and ack, or the take of the flows that set the status
+            countStatus(clientId, execution.getVariable(Constants.VAR_SMS_STATUS, String.class));
+        }
+    }
+
+    private void countStatus(String clientId, String status) {
+        if (status != null) {
+            Counter.builder("sms.status")
+                .description("Number of SMS that entered a status")
+                .tag("client", String.valueOf(clientId))
+                .tag("status", status)
+                .register(registry)
+                .increment();
+        }
+    }
+
+    private Timer timer(String name, String description, String clientId) {
+        return Timer.builder(name)
+            .description(description)
+            .tag("client", String.valueOf(clientId))
+            .publishPercentileHistogram()
+            .register(registry);
+    }
+}
@@ -0,0 +1,99 @@
+package it.zwets.sms.scheduler.diag;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import it.zwets.sms.scheduler.store.SmsStatusStore;
+import it.zwets.sms.scheduler.store.SmsStatusStore.Overdue;
+import it.zwets.sms.scheduler.util.DateHelper;
+
+/**
+ * Actuator endpoint <code>smstimers</code> reporting the SMS whose scheduler
+ * timer is due but has not fired, per client.
+ *
+ * When the timer job executor falls behind, SMS stay SCHEDULED past their
+ * smsDueTime and may miss their deadline.  This reads that backlog from the
+ * {@link SmsStatusStore}.  Its {@link Metrics} expose the total backlog and
+ * the age of its oldest due time as gauges.  The lag of the timers that do
+ * fire is recorded by {@link SmsMetrics}.
+ *
+ * @author zwets
+ */
+@Endpoint(id = "smstimers")
+public class TimerBacklogEndpoint {
+
+    /* Gauges are read together, so they share a snapshot this long. */
+    private static final Duration SNAPSHOT_TTL = Duration.ofSeconds(5);
+
+    /** The DTO for the backlog of one client */
+    public final record ClientBacklog(String client, int overdue, String oldest, long lagSeconds) { }
+
+    /** The DTO for the backlog */
+    public final record Backlog(String time, int overdue, long lagSeconds, List<ClientBacklog> clients) { }
+
+    private final SmsStatusStore statusStore;
+    private final DateHelper dateHelper;
+
+    private volatile Snapshot snapshot = new Snapshot(Instant.EPOCH, 0, 0);
+
+    private record Snapshot(Instant time, int overdue, long lagSeconds) { }
+
+    public TimerBacklogEndpoint(SmsStatusStore statusStore, DateHelper dateHelper) {
+        this.statusStore = statusStore;
+        this.dateHelper = dateHelper;
+    }
+
+    @ReadOperation
+    public Backlog backlog() {
+        Instant now = Instant.now();
+        List<ClientBacklog> clients = statusStore.findOverdue(now).stream()
+                .map(o -> new ClientBacklog(o.clientId(), o.count(), dateHelper.format(o.oldest()), lagSeconds(o, now)))
+                .toList();
+        int overdue = clients.stream().mapToInt(ClientBacklog::overdue).sum();
+        long lag = clients.stream().mapToLong(ClientBacklog::lagSeconds).max().orElse(0);
+        snapshot = new Snapshot(now, overdue, lag);
+        return new Backlog(dateHelper.format(now), overdue, lag, clients);
+    }
+
+    private Snapshot getSnapshot() {
+        if (snapshot.time().plus(SNAPSHOT_TTL).isBefore(Instant.now())) {
+            backlog();
+        }
+        return snapshot;
+    }
+
+    private static long lagSeconds(Overdue o, Instant now) {
+        return o.oldest() == null ? 0 : Duration.between(o.oldest(), now).toSeconds();
+    }
+
+    /**
+     * Registers the backlog gauges with the actuator metrics.
+     */
+    public static class Metrics implements MeterBinder {
+
+        private final TimerBacklogEndpoint endpoint;
+
+        public Metrics(TimerBacklogEndpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        @Override
+        public void bindTo(MeterRegistry registry) {
+            Gauge.builder("sms.timer.backlog", endpoint, e -> e.getSnapshot().overdue())
+                .description("Number of SMS whose scheduler timer is due but has not fired")
+                .register(registry);
+            Gauge.builder("sms.timer.backlog.lag", endpoint, e -> e.getSnapshot().lagSeconds())
+                .description("Time since the due time of the oldest unfired scheduler timer")
+                .baseUnit("seconds")
+                .register(registry);
+        }
+    }
+}
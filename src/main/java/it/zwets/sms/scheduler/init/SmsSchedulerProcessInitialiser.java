@@ -10,10 +10,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import it.zwets.sms.scheduler.SmsSchedulerConfiguration.Constants;
+import it.zwets.sms.scheduler.store.ClientKeyStore;
+import it.zwets.sms.scheduler.store.PayloadStore;
 
 /**
  * Initialises the SmsSchedulerProcess process variables.
  * 
+ * Moves a payload passed in variable <code>payload</code> to the
+ * {@link PayloadStore}, leaving its id in variable <code>payloadId</code>.
+ * Registers the client key in the {@link ClientKeyStore}, and marks a
+ * request by event with a duplicate key INVALID, so that it is not sent.
+ * 
  * @author zwets
  */
 public class SmsSchedulerProcessInitialiser implements ExecutionListener {
@@ -21,6 +28,14 @@ public class SmsSchedulerProcessInitialiser implements ExecutionListener {
 	private static final Logger LOG = LoggerFactory.getLogger(SmsSchedulerProcessInitialiser.class);
 	private static final long serialVersionUID = 1L;
 
+	private final PayloadStore payloadStore;
+	private final ClientKeyStore clientKeyStore;
+
+	public SmsSchedulerProcessInitialiser(PayloadStore payloadStore, ClientKeyStore clientKeyStore) {
+	    this.payloadStore = payloadStore;
+	    this.clientKeyStore = clientKeyStore;
+	}
+
 	@Override
 	public void notify(DelegateExecution execution) {
 
@@ -40,16 +55,44 @@ public class SmsSchedulerProcessInitialiser implements ExecutionListener {
             throw new RuntimeException("Process cannot be started without schedule");            
         }
 
-        String payload = execution.getVariable(Constants.VAR_PAYLOAD, String.class);
+        // Processes started by scheduleSms pass the payloadId, those started by event the payload
+        
+        String payloadId = execution.getVariable(Constants.VAR_PAYLOAD_ID, String.class);
+        boolean byEvent = payloadId == null;
+
+        if (byEvent) {
+            String payload = execution.getVariable(Constants.VAR_PAYLOAD, String.class);
+
+            if (payload == null) {
+                LOG.error("Process must set variable {} or {}", Constants.VAR_PAYLOAD_ID, Constants.VAR_PAYLOAD);
+                throw new RuntimeException("Process cannot be started without payload");            
+            }
+
+            payloadId = payloadStore.put(payload);
+            execution.removeVariable(Constants.VAR_PAYLOAD);
+            execution.setVariable(Constants.VAR_PAYLOAD_ID, payloadId);
+        }
+
+        // Register the client key (when keys are unique).  If it is taken, fail the start
+        // when requested by scheduleSms, which returns the SMS that has it.  A request
+        // by event must not fail, as the event would be redelivered, so we let it end
+        // as INVALID without scheduling, which also acknowledges a redelivered event.
+
+        String clientKey = execution.getVariable(Constants.VAR_CLIENT_KEY, String.class);
+        String smsStatus = Constants.SMS_STATUS_NEW;
 
-        if (payload == null) {
-            LOG.error("Process must set variable {}", Constants.VAR_PAYLOAD);
-            throw new RuntimeException("Process cannot be started without payload");            
+        if (!clientKeyStore.add(clientId, clientKey, execution.getProcessInstanceId())) {
+            if (!byEvent) {
+                LOG.warn("Rejecting duplicate client key: {}:{}", clientId, clientKey);
+                throw new RuntimeException("Duplicate client key for client %s: %s".formatted(clientId, clientKey));
+            }
+            LOG.warn("Ignoring request by event with duplicate client key: {}:{}", clientId, clientKey);
+            smsStatus = Constants.SMS_STATUS_INVALID;
         }
 
 		// Initialise the smsStatus and retries variable
 		
-		execution.setVariable(Constants.VAR_SMS_STATUS, Constants.SMS_STATUS_NEW);
+		execution.setVariable(Constants.VAR_SMS_STATUS, smsStatus);
         execution.setVariable(Constants.VAR_SMS_RETRIES, -1);
 		
         if (LOG.isDebugEnabled()) {
@@ -57,10 +100,10 @@ public class SmsSchedulerProcessInitialiser implements ExecutionListener {
                 StringUtils.substringBefore(execution.getProcessInstanceId(), '-'),
                 clientId, 
                 execution.getVariable(Constants.VAR_BATCH_ID),
-		        execution.getVariable(Constants.VAR_CLIENT_KEY),
+		        clientKey,
                 execution.getVariable(Constants.VAR_TARGET_ID),
 		        schedule,
-		        payload,
+		        payloadId,
 		        execution.getVariable(Constants.VAR_USER_ID));
         }
 	}
@@ -1,8 +1,15 @@
 package it.zwets.sms.scheduler.rest;
 
+import java.io.BufferedWriter;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -10,17 +17,23 @@ import org.springframework.security.config.annotation.method.configuration.Enabl
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import it.zwets.sms.scheduler.TargetBlockerService;
+import it.zwets.sms.scheduler.TargetBlockerService.BulkResult;
 
 /**
  * REST Controller for the /block endpoint
  * 
- * Provides for blocking targets from having anything scheduled to them.
+ * Provides for blocking targets from having anything scheduled to them,
+ * one at a time or in bulk by POSTing (or DELETEing) a list of targets.
  */
 @RestController
 @RequestMapping(value = "/block")
@@ -44,6 +57,45 @@ public class BlockerRestController {
         theService.blockTarget(clientId, targetId);
     }
     
+    /**
+     * POST a list of targets to block, e.g. an opt-out list.  Also cancels
+     * the scheduled SMS for the newly blocked targets.
+     * @param clientId path variable identifies the client (scope) that defined the targets
+     * @param contentType either application/json for a JSON array of strings, or text/plain for one target per line
+     * @param body the streamed target list
+     * @return the counts of targets received, newly blocked, and SMS canceled
+     */
+    @PostMapping(path = "{clientId}", consumes = { MediaType.TEXT_PLAIN_VALUE, MediaType.APPLICATION_JSON_VALUE }, produces = MediaType.APPLICATION_JSON_VALUE)
+    @PreAuthorize("hasRole('users') && hasRole(#clientId)")
+    public BulkResult postBlocks(@PathVariable String clientId, @RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType, InputStream body) {
+        LOG.debug("REST POST /block/{}", clientId);
+        try {
+            return theService.blockTargets(clientId, TargetListReader.read(body, contentType));
+        }
+        catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    /**
+     * DELETE a list of blocks.
+     * @param clientId path variable identifies the client (scope) that defined the targets
+     * @param contentType either application/json for a JSON array of strings, or text/plain for one target per line
+     * @param body the streamed target list
+     * @return the counts of targets received and unblocked
+     */
+    @DeleteMapping(path = "{clientId}", consumes = { MediaType.TEXT_PLAIN_VALUE, MediaType.APPLICATION_JSON_VALUE }, produces = MediaType.APPLICATION_JSON_VALUE)
+    @PreAuthorize("hasRole('users') && hasRole(#clientId)")
+    public BulkResult deleteBlocks(@PathVariable String clientId, @RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType, InputStream body) {
+        LOG.debug("REST DELETE /block/{}", clientId);
+        try {
+            return theService.unblockTargets(clientId, TargetListReader.read(body, contentType));
+        }
+        catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
     /**
      * DELETE an existing block.
      * @param clientId path variable identifies the client (scope) that defined the target
@@ -57,16 +109,18 @@ public class BlockerRestController {
     }
     
     /**
-     * GET the list of blocks.
+     * GET the list of blocks.  The list is streamed from the store, so its
+     * size is not limited by memory.
      * @param clientId path variable identifies the client (scope) that defined the target
-     * @param targetId path variable defining the block
-     * @return a plain text list of blocked targets
+     * @param since optional ISO-8601 instant, to list only the targets blocked since then
+     * @return a plain text list of blocked targets, one per line
      */
     @GetMapping(path = "{clientId}", produces = MediaType.TEXT_PLAIN_VALUE)
     @PreAuthorize("hasRole('users') && hasRole(#clientId)")
-    public String getBlocks(@PathVariable String clientId) {
-        LOG.trace("REST GET /block/{}", clientId);
-        return theService.getBlockedTargets(clientId);
+    public StreamingResponseBody getBlocks(@PathVariable String clientId, @RequestParam(required = false) Instant since) {
+        LOG.trace("REST GET /block/{}?since={}", clientId, since);
+        return out -> theService.writeBlockedTargets(clientId, since,
+                new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
     }
     
     /**
@@ -83,4 +137,4 @@ public class BlockerRestController {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND);
         }
     }
-}    
+}
@@ -1,12 +1,20 @@
 package it.zwets.sms.scheduler.rest;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.time.Instant;
 import java.util.List;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.config.annotation.method.configuration.EnableMethodSecurity;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -18,14 +26,29 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import it.zwets.sms.scheduler.CancelJobService;
+import it.zwets.sms.scheduler.CancelJobService.CancelJob;
+import it.zwets.sms.scheduler.CancelJobService.Scope;
+import it.zwets.sms.scheduler.SmsSchedulerConfiguration;
 import it.zwets.sms.scheduler.SmsSchedulerService;
+import it.zwets.sms.scheduler.SmsSchedulerService.SmsRequest;
 import it.zwets.sms.scheduler.SmsSchedulerService.SmsStatus;
+import it.zwets.sms.scheduler.SmsSchedulerService.StatusPage;
 
 /**
  * REST Controller for the /schedule endpoint
  * 
- * Provides for scheduling on the /schedule/{client} endpoints,
+ * Provides for scheduling on the /schedule/{client} endpoints (and in
+ * bulk on /schedule/{client}/batch),
  * and querying and canceling/deleting on three variables:
  * <ul>
  * <li><b>by-id</b>: on the unique process instance ID assigned by the server</li>
@@ -33,6 +56,15 @@ import it.zwets.sms.scheduler.SmsSchedulerService.SmsStatus;
  * <li><b>by-target</b>: on the target ID (semantically: the recipient) optionally assigned by the client</li>
  * <li></li>
  * </ul>
+ * The list queries are paged: they return at most <code>limit</code> items,
+ * by default 1000 and at most 10000.  The body stays a plain list, so when
+ * there are more items the response says so in its headers: X-Next-Cursor
+ * holds the cursor to pass for the next page, and <code>Link</code> the
+ * URL of the next page with <code>rel="next"</code>.  A response without
+ * these headers holds the last page.
+ * The cancels by batch, by target, and of all SMS of a client run in the
+ * background: they return ACCEPTED with a cancel job, whose progress can be
+ * followed on /schedule/{client}/jobs/{job}.
  */
 @RestController
 @RequestMapping(value = "/schedule")
@@ -41,9 +73,24 @@ public class SchedulerRestController {
 
     private static final Logger LOG = LoggerFactory.getLogger(SchedulerRestController.class);
 
+    /** Response header holding the cursor for the next page of a list */
+    public static final String NEXT_CURSOR = "X-Next-Cursor";
+
+    private static final String DEFAULT_PAGE_SIZE = "1000";
+    private static final int MAX_PAGE_SIZE = 10000;
+
     @Autowired
     private SmsSchedulerService theService;
 
+    @Autowired
+    private CancelJobService cancelJobService;
+
+    @Autowired
+    private SmsSchedulerConfiguration configuration;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
     // SCHEDULE -----------------------------------------------------------------------------------
     
     /* Request from client; all fields except schedule and payload can be absent. */
@@ -67,18 +114,95 @@ public class SchedulerRestController {
         }
     }
     
+    /**
+     * POST many scheduled SMS at once.  The requests are read from the body
+     * as they are scheduled, so that any number can be posted in constant
+     * memory.  They are started in transactions of (by default) 500.
+     * @param clientId path variable identifying the client (tenant) for whom the sends are
+     * @param body a JSON array of Request objects, or newline-delimited Request objects
+     * @return one result object per line, with the request index and its status or error
+     */
+    @PostMapping(path = "{clientId}/batch", consumes = { MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE },
+            produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @PreAuthorize("hasRole('users') && hasRole(#clientId)")
+    public StreamingResponseBody postBatch(@PathVariable String clientId, InputStream body) {
+        LOG.trace("REST POST /schedule/{}/batch", clientId);
+
+        ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+        return out -> {
+            try (JsonGenerator gen = objectMapper.getFactory().createGenerator(out);
+                 MappingIterator<SmsRequest> requests = objectMapper.readerFor(SmsRequest.class).readValues(body))
+            {
+                gen.setRootValueSeparator(null);
+                theService.scheduleSmsBulk(clientId, requests, configuration.getScheduleChunkSize(), r -> {
+                    try {
+                        writer.writeValue(gen, r);
+                        gen.writeRaw('\n');
+                    }
+                    catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+            catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+    }
+
     // QUERY --------------------------------------------------------------------------------------
     
     /**
      * GET the list of scheduled SMS
      * @param clientId path variable identifying the client (tenant)
-     * @return list of SMS status objects
+     * @param cursor optional cursor from the X-Next-Cursor header of the previous page
+     * @param limit optional maximum number of items to return, default 1000
+     * @return list of SMS status objects, with header X-Next-Cursor if there are more
      */
     @GetMapping(path = "{clientId}", produces = MediaType.APPLICATION_JSON_VALUE)
     @PreAuthorize("hasRole('users') && hasRole(#clientId)")
-    public List<SmsStatus> getClient(@PathVariable String clientId) {
+    public ResponseEntity<List<SmsStatus>> getClient(@PathVariable String clientId,
+            @RequestParam(required = false) String cursor, @RequestParam(defaultValue = DEFAULT_PAGE_SIZE) int limit) {
         LOG.trace("REST GET /schedule/{}", clientId);
-        return theService.getStatusList(clientId);
+        return pageResponse(() -> theService.getStatusPage(clientId, cursor, limit), limit);
+    }
+
+    /**
+     * GET an export of the status of all SMS of a client as newline-delimited
+     * JSON.  The SMS are streamed page by page from the database, so exports
+     * of any size can be made in constant memory.
+     * @param clientId path variable identifying the client (tenant)
+     * @param status optional status to filter on, e.g. DELIVERED
+     * @param from optional ISO-8601 instant, to export only the SMS started at or after it
+     * @param till optional ISO-8601 instant, to export only the SMS started at or before it
+     * @return one SMS status object per line
+     */
+    @GetMapping(path = "{clientId}/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @PreAuthorize("hasRole('users') && hasRole(#clientId)")
+    public StreamingResponseBody getExport(@PathVariable String clientId, @RequestParam(required = false) String status,
+            @RequestParam(required = false) Instant from, @RequestParam(required = false) Instant till) {
+        LOG.trace("REST GET /schedule/{}/export?status={}&from={}&till={}", clientId, status, from, till);
+
+        ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+        return out -> {
+            try (JsonGenerator gen = objectMapper.getFactory().createGenerator(out)) {
+                gen.setRootValueSeparator(null);
+                theService.exportStatus(clientId, status, from, till, s -> {
+                    try {
+                        writer.writeValue(gen, s);
+                        gen.writeRaw('\n');
+                    }
+                    catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+            catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
     }
 
     /**
@@ -103,13 +227,16 @@ public class SchedulerRestController {
      * GET status list for all SMS scheduled in a batch
      * @param clientId path variable identifying the client (tenant)
      * @param batchId the client-provided identifier of the batch (recipient)
-     * @return list of SMS status objects
+     * @param cursor optional cursor from the X-Next-Cursor header of the previous page
+     * @param limit optional maximum number of items to return, default 1000
+     * @return list of SMS status objects, with header X-Next-Cursor if there are more
      */
     @GetMapping(path = "{clientId}/by-batch/{batchId}")
     @PreAuthorize("hasRole('users') && hasRole(#clientId)")
-    public List<SmsStatus> getByBatch(@PathVariable String clientId, @PathVariable String batchId) {
+    public ResponseEntity<List<SmsStatus>> getByBatch(@PathVariable String clientId, @PathVariable String batchId,
+            @RequestParam(required = false) String cursor, @RequestParam(defaultValue = DEFAULT_PAGE_SIZE) int limit) {
         LOG.trace("REST GET /schedule/{}/by-batch/{}", clientId, batchId);
-        return theService.getStatusListByBatch(clientId, batchId);
+        return pageResponse(() -> theService.getStatusPageByBatch(clientId, batchId, cursor, limit), limit);
     }
     
     /**
@@ -117,41 +244,86 @@ public class SchedulerRestController {
      * (ideally unique but this is up to the client).
      * @param clientId path variable identifying the client (tenant)
      * @param clientKey the client-provided identifier of the message send
-     * @return list of SMS status objects
+     * @param cursor optional cursor from the X-Next-Cursor header of the previous page
+     * @param limit optional maximum number of items to return, default 1000
+     * @return list of SMS status objects, with header X-Next-Cursor if there are more
      */
     @GetMapping(path = "{clientId}/by-key/{clientKey}")
     @PreAuthorize("hasRole('users') && hasRole(#clientId)")
-    public List<SmsStatus> getByKey(@PathVariable String clientId, @PathVariable String clientKey) {
+    public ResponseEntity<List<SmsStatus>> getByKey(@PathVariable String clientId, @PathVariable String clientKey,
+            @RequestParam(required = false) String cursor, @RequestParam(defaultValue = DEFAULT_PAGE_SIZE) int limit) {
         LOG.trace("REST GET /schedule/{}/by-key/{}", clientId, clientKey);
-        return theService.getStatusListByClientKey(clientId, clientKey);
+        return pageResponse(() -> theService.getStatusPageByClientKey(clientId, clientKey, cursor, limit), limit);
     }
 
     /**
      * GET status list for all SMS scheduled for a target
      * @param clientId path variable identifying the client (tenant)
      * @param targetId the client-provided identifier of the target (recipient)
-     * @return list of SMS status objects
+     * @param cursor optional cursor from the X-Next-Cursor header of the previous page
+     * @param limit optional maximum number of items to return, default 1000
+     * @return list of SMS status objects, with header X-Next-Cursor if there are more
      */
     @GetMapping(path = "{clientId}/by-target/{targetId}")
     @PreAuthorize("hasRole('users') && hasRole(#clientId)")
-    public List<SmsStatus> getByTarget(@PathVariable String clientId, @PathVariable String targetId) {
+    public ResponseEntity<List<SmsStatus>> getByTarget(@PathVariable String clientId, @PathVariable String targetId,
+            @RequestParam(required = false) String cursor, @RequestParam(defaultValue = DEFAULT_PAGE_SIZE) int limit) {
         LOG.trace("REST GET /schedule/{}/by-target/{}", clientId, targetId);
-        return theService.getStatusListByTarget(clientId, targetId);
+        return pageResponse(() -> theService.getStatusPageByTarget(clientId, targetId, cursor, limit), limit);
+    }
+    
+    /* Returns the page with the cursor for the next page, if any, in the NEXT_CURSOR and Link headers. */
+    private ResponseEntity<List<SmsStatus>> pageResponse(Supplier<StatusPage> query, int limit) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be between 1 and %d".formatted(MAX_PAGE_SIZE));
+        }
+        try {
+            StatusPage page = query.get();
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+            if (page.next() != null) {
+                response.header(NEXT_CURSOR, page.next());
+                response.header(HttpHeaders.LINK, "<%s>; rel=\"next\"".formatted(ServletUriComponentsBuilder.fromCurrentRequest()
+                        .replaceQueryParam("cursor", page.next()).replaceQueryParam("limit", limit).toUriString()));
+            }
+            return response.body(page.items());
+        }
+        catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+    
+    /**
+     * GET the progress of a bulk cancel job
+     * @param clientId path variable identifying the client (tenant)
+     * @param jobId the id of the cancel job
+     * @return the job with its state and counts, or NOT_FOUND
+     */
+    @GetMapping(path = "{clientId}/jobs/{jobId}", produces = MediaType.APPLICATION_JSON_VALUE)
+    @PreAuthorize("hasRole('users') && hasRole(#clientId)")
+    public CancelJob getJob(@PathVariable String clientId, @PathVariable String jobId) {
+        LOG.trace("REST GET /schedule/{}/jobs/{}", clientId, jobId);
+        
+        CancelJob job = cancelJobService.getJob(clientId, jobId);
+        if (job == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+        }
+        return job;
     }
     
     // CANCEL -------------------------------------------------------------------------------------
     
     /**
-     * DELETE (cancel) ALL scheduled SMS for a client
+     * DELETE (cancel) ALL scheduled SMS for a client, in a background cancel job
      * @param clientId the client ID for which to delete the SMS
      * @param confirm request parameter that must be present with value 'yes-i-am-sure' as a safeguard
+     * @return ACCEPTED with the cancel job, and its status URL in the Location header
      */
     @DeleteMapping(path = "{clientId}")
     @PreAuthorize("hasRole('users') && hasRole(#clientId)")
-    public void deleteClient(@PathVariable String clientId, @RequestParam String confirm) {
+    public ResponseEntity<CancelJob> deleteClient(@PathVariable String clientId, @RequestParam String confirm) {
         LOG.trace("REST DELETE /schedule/{}", clientId);
         if ("yes-i-am-sure".equals(confirm)) {
-            theService.cancelAllForClient(clientId);
+            return acceptedJob(cancelJobService.submit(clientId, Scope.CLIENT, null));
         }
         else {
             throw new ResponseStatusException(HttpStatus.FORBIDDEN, "This requires parameter confirm=yes-i-am-sure");
@@ -171,19 +343,20 @@ public class SchedulerRestController {
     }
 
     /**
-     * DELETE (cancel) scheduled SMS by client-provided batch-id
+     * DELETE (cancel) scheduled SMS by client-provided batch-id, in a background cancel job
      * @param clientId path variable identifying the client (tenant)
-     * @param clientKey the client-provided identifier of the SMS
+     * @param batchId the client-provided identifier of the batch
+     * @return ACCEPTED with the cancel job, and its status URL in the Location header
      */
     @DeleteMapping(path = "{clientId}/by-batch/{batchId}")
     @PreAuthorize("hasRole('users') && hasRole(#clientId)")
-    public void deleteByBatch(@PathVariable String clientId, @PathVariable String batchId) {
+    public ResponseEntity<CancelJob> deleteByBatch(@PathVariable String clientId, @PathVariable String batchId) {
         LOG.trace("REST DELETE /schedule/{}/by-batch/{}", clientId, batchId);
-        theService.cancelBatch(clientId, batchId);
+        return acceptedJob(cancelJobService.submit(clientId, Scope.BATCH, batchId));
     }
 
     /**
-     * DELETE (cancel) scheduled SMS by client-provided key
+     * DELETE (cancel) scheduled SMS by client-provided key, responding 500 if the cancel failed
      * @param clientId path variable identifying the client (tenant)
      * @param clientKey the client-provided identifier of the SMS
      */
@@ -191,19 +364,32 @@ public class SchedulerRestController {
     @PreAuthorize("hasRole('users') && hasRole(#clientId)")
     public void deleteByKey(@PathVariable String clientId, @PathVariable String clientKey) {
         LOG.trace("REST DELETE /schedule/{}/by-key/{}", clientId, clientKey);
-        theService.cancelByClientKey(clientId, clientKey);
+        try {
+            theService.cancelByClientKey(clientId, clientKey);
+        }
+        catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, e.getMessage());
+        }
     }
 
     /**
-     * DELETE (cancel) all scheduled SMS for a target
+     * DELETE (cancel) all scheduled SMS for a target, in a background cancel job
      * @param clientId path variable identifying the client (tenant)
      * @param targetId the client-provided identifier of the target (recipient)
+     * @return ACCEPTED with the cancel job, and its status URL in the Location header
      */
     @DeleteMapping(path = "{clientId}/by-target/{targetId}")
     @PreAuthorize("hasRole('users') && hasRole(#clientId)")
-    public void deleteByTarget(@PathVariable String clientId, @PathVariable String targetId) {
+    public ResponseEntity<CancelJob> deleteByTarget(@PathVariable String clientId, @PathVariable String targetId) {
         LOG.trace("REST DELETE /schedule/{}/by-target/{}", clientId, targetId);
-        theService.cancelAllForTarget(clientId, targetId);
+        return acceptedJob(cancelJobService.submit(clientId, Scope.TARGET, targetId));
+    }
+
+    /* Returns ACCEPTED with the job, and the URL to follow its progress in the Location header. */
+    private ResponseEntity<CancelJob> acceptedJob(CancelJob job) {
+        URI location = ServletUriComponentsBuilder.fromCurrentContextPath()
+                .path("/schedule/{clientId}/jobs/{jobId}").buildAndExpand(job.client(), job.id()).toUri();
+        return ResponseEntity.accepted().location(location).body(job);
     }
 
     // Helpers
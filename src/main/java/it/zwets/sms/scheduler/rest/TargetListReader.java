@@ -0,0 +1,134 @@
+package it.zwets.sms.scheduler.rest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.springframework.http.MediaType;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Streams target IDs from a request body.
+ *
+ * Reads either a JSON array of strings, or plain text with one target ID
+ * per line (blank lines are skipped).  The body is consumed incrementally,
+ * so that lists of any length can be processed in constant memory.
+ *
+ * Malformed input and target IDs longer than {@link #MAX_LENGTH} throw an
+ * IllegalArgumentException from {@link Iterator#next()} or hasNext().
+ *
+ * @author zwets
+ */
+final class TargetListReader {
+
+    /** Maximum length of a target ID (as stored) */
+    static final int MAX_LENGTH = 255;
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private TargetListReader() {
+    }
+
+    /**
+     * Return an iterator over the target IDs in the body
+     * @param in the request body
+     * @param contentType the content type, JSON or else plain text
+     * @return iterator over the target IDs, reading from in as it goes
+     */
+    static Iterator<String> read(InputStream in, MediaType contentType) {
+        try {
+            return contentType != null && MediaType.APPLICATION_JSON.isCompatibleWith(contentType)
+                    ? jsonIterator(in)
+                    : textIterator(in);
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("Invalid target list: " + e.getMessage(), e);
+        }
+    }
+
+    private static Iterator<String> textIterator(InputStream in) {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        return new Reader() {
+            @Override
+            protected String readNext() throws IOException {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.strip();
+                    if (!line.isEmpty()) {
+                        return line;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    private static Iterator<String> jsonIterator(InputStream in) throws IOException {
+        JsonParser p = JSON.createParser(in);
+        if (p.nextToken() != JsonToken.START_ARRAY) {
+            throw new IllegalArgumentException("Expected a JSON array of target IDs");
+        }
+        return new Reader() {
+            @Override
+            protected String readNext() throws IOException {
+                JsonToken t = p.nextToken();
+                if (t == JsonToken.END_ARRAY) {
+                    return null;
+                }
+                if (t != JsonToken.VALUE_STRING) {
+                    throw new JsonParseException(p, "Expected a target ID string but found " + t);
+                }
+                return p.getText();
+            }
+        };
+    }
+
+    /* Iterator that reads ahead one element, validating it. */
+    private static abstract class Reader implements Iterator<String> {
+
+        private String next = null;
+        private boolean done = false;
+        private int count = 0;
+
+        /* Return the next target ID, or null at end of input. */
+        protected abstract String readNext() throws IOException;
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !done) {
+                try {
+                    next = readNext();
+                }
+                catch (IOException e) {
+                    throw new IllegalArgumentException("Invalid target list after %d targets: %s".formatted(count, e.getMessage()), e);
+                }
+                if (next == null) {
+                    done = true;
+                }
+                else if (next.length() > MAX_LENGTH) {
+                    throw new IllegalArgumentException("Target ID %d longer than %d characters".formatted(count + 1, MAX_LENGTH));
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String result = next;
+            next = null;
+            ++count;
+            return result;
+        }
+    }
+}
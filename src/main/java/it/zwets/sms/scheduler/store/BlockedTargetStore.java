@@ -0,0 +1,198 @@
+package it.zwets.sms.scheduler.store;
+
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Persistent store of blocked targets.
+ *
+ * Holds the (client, target) pairs in table <code>sms_blocked_target</code>,
+ * whose primary key on (client_id, target_id) makes each lookup a single
+ * indexed read.  The table is created by <code>schema.sql</code> at startup.
+ *
+ * @author zwets
+ */
+@Repository
+public class BlockedTargetStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BlockedTargetStore.class);
+
+    /* Number of rows read per query by the paged methods. */
+    private static final int PAGE_SIZE = 1000;
+
+    private static final String SQL_INSERT =
+            "INSERT INTO sms_blocked_target (client_id, target_id, blocked_at) "
+            + "SELECT CAST(? AS VARCHAR(255)), CAST(? AS VARCHAR(255)), CAST(? AS TIMESTAMP) WHERE NOT EXISTS "
+            + "(SELECT 1 FROM sms_blocked_target WHERE client_id = ? AND target_id = ?)";
+    private static final String SQL_DELETE =
+            "DELETE FROM sms_blocked_target WHERE client_id = ? AND target_id = ?";
+    private static final String SQL_EXISTS =
+            "SELECT COUNT(*) FROM sms_blocked_target WHERE client_id = ? AND target_id = ?";
+    private static final String SQL_TARGETS =
+            "SELECT target_id FROM sms_blocked_target WHERE client_id = ? ORDER BY target_id";
+    private static final String SQL_TARGETS_PAGE =
+            "SELECT target_id FROM sms_blocked_target WHERE client_id = ? AND target_id > ? AND blocked_at >= ? "
+            + "ORDER BY target_id FETCH FIRST %d ROWS ONLY".formatted(PAGE_SIZE);
+    private static final String SQL_COUNTS =
+            "SELECT client_id, COUNT(*) FROM sms_blocked_target GROUP BY client_id";
+    private static final String SQL_ALL =
+            "SELECT client_id, target_id FROM sms_blocked_target";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public BlockedTargetStore(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Add a block unless already present
+     * @param clientId the client
+     * @param targetId the target
+     * @param blockedAt the time of blocking
+     * @return true if the block was added, false if it was present
+     */
+    public boolean add(String clientId, String targetId, Instant blockedAt) {
+        LOG.trace("add({},{})", clientId, targetId);
+        try {
+            return jdbcTemplate.update(SQL_INSERT, clientId, targetId, Timestamp.from(blockedAt), clientId, targetId) > 0;
+        }
+        catch (DuplicateKeyException e) { // lost a race with a concurrent add
+            return false;
+        }
+    }
+
+    /**
+     * Add a batch of blocks in a single transaction, skipping those present
+     * @param clientId the client
+     * @param targetIds the targets, without duplicates
+     * @param blockedAt the time of blocking
+     * @return the targets that were added (all if the driver does not report counts)
+     */
+    @Transactional
+    public List<String> addAll(String clientId, List<String> targetIds, Instant blockedAt) {
+        LOG.trace("addAll({},{} targets)", clientId, targetIds.size());
+
+        Timestamp ts = Timestamp.from(blockedAt);
+        int[][] counts = jdbcTemplate.batchUpdate(SQL_INSERT, targetIds, targetIds.size(), (ps, targetId) -> {
+            ps.setString(1, clientId);
+            ps.setString(2, targetId);
+            ps.setTimestamp(3, ts);
+            ps.setString(4, clientId);
+            ps.setString(5, targetId);
+        });
+
+        List<String> added = new ArrayList<String>();
+        for (int i = 0; i < targetIds.size(); ++i) {
+            if (counts[0][i] != 0) {
+                added.add(targetIds.get(i));
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Remove a batch of blocks in a single transaction
+     * @param clientId the client
+     * @param targetIds the targets
+     * @return the number of blocks removed (or of targets if the driver does not report counts)
+     */
+    @Transactional
+    public int removeAll(String clientId, List<String> targetIds) {
+        LOG.trace("removeAll({},{} targets)", clientId, targetIds.size());
+
+        int[][] counts = jdbcTemplate.batchUpdate(SQL_DELETE, targetIds, targetIds.size(), (ps, targetId) -> {
+            ps.setString(1, clientId);
+            ps.setString(2, targetId);
+        });
+
+        int removed = 0;
+        for (int count : counts[0]) {
+            removed += count == Statement.SUCCESS_NO_INFO ? 1 : count;
+        }
+        return removed;
+    }
+
+    /**
+     * Remove a block
+     * @param clientId the client
+     * @param targetId the target
+     * @return true if the block was present
+     */
+    public boolean remove(String clientId, String targetId) {
+        LOG.trace("remove({},{})", clientId, targetId);
+        return jdbcTemplate.update(SQL_DELETE, clientId, targetId) > 0;
+    }
+
+    /**
+     * Check whether a block is present
+     * @param clientId the client
+     * @param targetId the target
+     * @return true if the target is blocked for the client
+     */
+    public boolean contains(String clientId, String targetId) {
+        Integer count = jdbcTemplate.queryForObject(SQL_EXISTS, Integer.class, clientId, targetId);
+        return count != null && count > 0;
+    }
+
+    /**
+     * List the blocked targets for a client
+     * @param clientId the client
+     * @return the target IDs in lexical order
+     */
+    public List<String> getTargets(String clientId) {
+        return jdbcTemplate.queryForList(SQL_TARGETS, String.class, clientId);
+    }
+
+    /**
+     * Pass the blocked targets for a client to a consumer, reading them a page
+     * at a time using the primary key (so memory use does not grow with the
+     * number of targets)
+     * @param clientId the client
+     * @param since only pass targets blocked at or after this instant, or null for all
+     * @param consumer receives the target IDs in lexical order
+     */
+    public void forEachTarget(String clientId, Instant since, Consumer<String> consumer) {
+        Timestamp from = Timestamp.from(since != null ? since : Instant.EPOCH);
+        String last = "";
+        List<String> page;
+        do {
+            page = jdbcTemplate.queryForList(SQL_TARGETS_PAGE, String.class, clientId, last, from);
+            page.forEach(consumer);
+            if (!page.isEmpty()) {
+                last = page.get(page.size() - 1);
+            }
+        } while (page.size() == PAGE_SIZE);
+    }
+
+    /**
+     * Count the blocked targets per client
+     * @return map of clientId to its number of blocked targets
+     */
+    public Map<String, Integer> getCounts() {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        jdbcTemplate.query(SQL_COUNTS, rs -> { counts.put(rs.getString(1), rs.getInt(2)); });
+        return counts;
+    }
+
+    /**
+     * Stream all blocks to a consumer, without collecting them in memory
+     * @param consumer receives the clientId and targetId of each block
+     */
+    public void forEach(BiConsumer<String, String> consumer) {
+        jdbcTemplate.query(SQL_ALL, rs -> { consumer.accept(rs.getString(1), rs.getString(2)); });
+    }
+}
@@ -0,0 +1,181 @@
+package it.zwets.sms.scheduler.store;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Persistent state of the bulk cancel jobs.
+ *
+ * Holds one row per job in table <code>sms_cancel_job</code>, with its
+ * selection, progress counts, and the (started, id) of the last instance
+ * it processed.  A job updates its row in the transaction that cancels each
+ * chunk, so that after a restart it resumes exactly after the last
+ * committed chunk.
+ *
+ * A node runs a job only while it holds the job's lease: it claims the
+ * lease with a conditional update, and extends it with every chunk.  The
+ * lease of a node that stopped expires, and another node can then resume.
+ *
+ * @author zwets
+ */
+@Repository
+public class CancelJobStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CancelJobStore.class);
+
+    /** Job states */
+    public static final String STATE_QUEUED = "QUEUED";
+    public static final String STATE_RUNNING = "RUNNING";
+    public static final String STATE_DONE = "DONE";
+    public static final String STATE_FAILED = "FAILED";
+
+    private static final String COLUMNS =
+            "id, client_id, scope, scope_value, state, matched, canceled, finished, failed, "
+            + "last_started, last_id, created, updated, error";
+
+    private static final String SQL_INSERT =
+            "INSERT INTO sms_cancel_job (" + COLUMNS + ") VALUES (?, ?, ?, ?, ?, 0, 0, 0, 0, NULL, NULL, ?, ?, NULL)";
+    private static final String SQL_CLAIM =
+            "UPDATE sms_cancel_job SET lease_owner = ?, lease_until = ? WHERE id = ? "
+            + "AND state IN ('" + STATE_QUEUED + "', '" + STATE_RUNNING + "') "
+            + "AND (lease_owner IS NULL OR lease_owner = ? OR lease_until < ?)";
+    private static final String SQL_PROGRESS =
+            "UPDATE sms_cancel_job SET state = ?, matched = matched + ?, canceled = canceled + ?, finished = finished + ?, "
+            + "failed = failed + ?, last_started = ?, last_id = ?, updated = ?, lease_until = ? WHERE id = ? AND lease_owner = ?";
+    private static final String SQL_STATE =
+            "UPDATE sms_cancel_job SET state = ?, error = ?, updated = ?, lease_owner = NULL, lease_until = NULL "
+            + "WHERE id = ? AND lease_owner = ?";
+    private static final String SQL_SELECT =
+            "SELECT " + COLUMNS + " FROM sms_cancel_job WHERE id = ?";
+    private static final String SQL_RESUMABLE =
+            "SELECT " + COLUMNS + " FROM sms_cancel_job WHERE state IN ('" + STATE_QUEUED + "', '" + STATE_RUNNING + "') "
+            + "AND (lease_until IS NULL OR lease_until < ?) ORDER BY created";
+    private static final String SQL_PURGE =
+            "DELETE FROM sms_cancel_job WHERE state IN ('" + STATE_DONE + "', '" + STATE_FAILED + "') AND updated < ?";
+
+    private static final RowMapper<Job> ROW_MAPPER = CancelJobStore::mapRow;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /** A cancel job row; lastStarted and lastId are null until the first chunk is done */
+    public final record Job(
+            String id, String clientId, String scope, String value, String state,
+            int matched, int canceled, int finished, int failed,
+            Instant lastStarted, String lastId, Instant created, Instant updated, String error) { }
+
+    public CancelJobStore(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Add a new job in state QUEUED
+     * @param id the job id
+     * @param clientId the client
+     * @param scope the kind of selection
+     * @param value the value selected on, or null
+     * @param created the creation time, which bounds the instances the job selects
+     */
+    public void add(String id, String clientId, String scope, String value, Instant created) {
+        LOG.trace("add({},{},{},{})", id, clientId, scope, value);
+        Timestamp ts = Timestamp.from(created);
+        jdbcTemplate.update(SQL_INSERT, id, clientId, scope, value, STATE_QUEUED, ts, ts);
+    }
+
+    /**
+     * Claim the lease on an unfinished job, if it has no owner, is owned
+     * by the claimant, or its lease expired
+     * @param id the job id
+     * @param owner the claiming node
+     * @param now the current time
+     * @param until the end of the lease
+     * @return true if the claimant now holds the lease
+     */
+    public boolean claim(String id, String owner, Instant now, Instant until) {
+        LOG.trace("claim({},{})", id, owner);
+        return jdbcTemplate.update(SQL_CLAIM, owner, Timestamp.from(until), id, owner, Timestamp.from(now)) > 0;
+    }
+
+    /**
+     * Add the counts for a chunk, move the resume point past it, and extend
+     * the lease, if the owner still holds it
+     * @param id the job id
+     * @param owner the node running the job
+     * @param matched the number of instances in the chunk
+     * @param canceled the number that were canceled
+     * @param finished the number that were already finished
+     * @param failed the number that failed to cancel
+     * @param lastStarted the start time of the last instance in the chunk
+     * @param lastId the id of the last instance in the chunk
+     * @param until the new end of the lease
+     * @return false if the owner lost the lease, and nothing was updated
+     */
+    public boolean addProgress(String id, String owner, int matched, int canceled, int finished, int failed,
+            Instant lastStarted, String lastId, Instant until) {
+        LOG.trace("addProgress({},{},{},{},{})", id, matched, canceled, finished, failed);
+        return jdbcTemplate.update(SQL_PROGRESS, STATE_RUNNING, matched, canceled, finished, failed,
+                Timestamp.from(lastStarted), lastId, Timestamp.from(Instant.now()), Timestamp.from(until), id, owner) > 0;
+    }
+
+    /**
+     * Set the final state of a job and release its lease, if the owner holds it
+     * @param id the job id
+     * @param owner the node running the job
+     * @param state the new state
+     * @param error the error message if state is FAILED, else null
+     * @return false if the owner did not hold the lease, and nothing was updated
+     */
+    public boolean setState(String id, String owner, String state, String error) {
+        LOG.trace("setState({},{})", id, state);
+        return jdbcTemplate.update(SQL_STATE, state, StringUtils.abbreviate(error, 1000), Timestamp.from(Instant.now()), id, owner) > 0;
+    }
+
+    /**
+     * Find a job
+     * @param id the job id
+     * @return the job or null
+     */
+    public Job find(String id) {
+        List<Job> jobs = jdbcTemplate.query(SQL_SELECT, ROW_MAPPER, id);
+        return jobs.isEmpty() ? null : jobs.get(0);
+    }
+
+    /**
+     * Find the jobs that are queued or running, and not leased by a node
+     * @param now the current time, after which leases are live
+     * @return the jobs in order of creation
+     */
+    public List<Job> findResumable(Instant now) {
+        return jdbcTemplate.query(SQL_RESUMABLE, ROW_MAPPER, Timestamp.from(now));
+    }
+
+    /**
+     * Delete the jobs that ended before a given time
+     * @param before the time
+     * @return the number of jobs deleted
+     */
+    public int purge(Instant before) {
+        return jdbcTemplate.update(SQL_PURGE, Timestamp.from(before));
+    }
+
+    private static Job mapRow(ResultSet rs, int rowNum) throws SQLException {
+        return new Job(
+                rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5),
+                rs.getInt(6), rs.getInt(7), rs.getInt(8), rs.getInt(9),
+                toInstant(rs.getTimestamp(10)), rs.getString(11), toInstant(rs.getTimestamp(12)), toInstant(rs.getTimestamp(13)),
+                rs.getString(14));
+    }
+
+    private static Instant toInstant(Timestamp ts) {
+        return ts == null ? null : ts.toInstant();
+    }
+}
@@ -0,0 +1,91 @@
+package it.zwets.sms.scheduler.store;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Index of the client keys, for idempotent scheduling.
+ *
+ * When enabled, maps each (client, key) pair to the one process instance
+ * scheduled with it, in table <code>sms_client_key</code>, whose primary
+ * key on (client_id, client_key) both makes the lookup a single indexed
+ * read and rejects a second instance for the pair.
+ *
+ * Only SMS scheduled while enabled are indexed.  When disabled, nothing
+ * is found and every add succeeds, but registrations are still removed,
+ * so that no stale ones remain when it is enabled again.
+ *
+ * @author zwets
+ */
+public class ClientKeyStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ClientKeyStore.class);
+
+    private static final String SQL_INSERT =
+            "INSERT INTO sms_client_key (client_id, client_key, instance_id) "
+            + "SELECT CAST(? AS VARCHAR(255)), CAST(? AS VARCHAR(255)), CAST(? AS VARCHAR(64)) WHERE NOT EXISTS "
+            + "(SELECT 1 FROM sms_client_key WHERE client_id = ? AND client_key = ?)";
+    private static final String SQL_SELECT =
+            "SELECT instance_id FROM sms_client_key WHERE client_id = ? AND client_key = ?";
+    private static final String SQL_DELETE =
+            "DELETE FROM sms_client_key WHERE instance_id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean enabled;
+
+    public ClientKeyStore(JdbcTemplate jdbcTemplate, boolean enabled) {
+        LOG.debug("ClientKeyStore created with enabled = {}", enabled);
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Whether client keys are unique per client
+     * @return true if enabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Register the instance for a client key, unless one is registered.
+     * A concurrent add of the same pair fails with a DuplicateKeyException.
+     * @param clientId the client
+     * @param clientKey the key, may be null
+     * @param instanceId the process instance
+     * @return false if another instance is registered for the pair
+     */
+    public boolean add(String clientId, String clientKey, String instanceId) {
+        if (!enabled || clientKey == null) {
+            return true;
+        }
+        LOG.trace("add({},{},{})", clientId, clientKey, instanceId);
+        return jdbcTemplate.update(SQL_INSERT, clientId, clientKey, instanceId, clientId, clientKey) > 0;
+    }
+
+    /**
+     * Find the instance registered for a client key
+     * @param clientId the client
+     * @param clientKey the key, may be null
+     * @return the process instance id, or null
+     */
+    public String find(String clientId, String clientKey) {
+        if (!enabled || clientKey == null) {
+            return null;
+        }
+        List<String> ids = jdbcTemplate.queryForList(SQL_SELECT, String.class, clientId, clientKey);
+        return ids.isEmpty() ? null : ids.get(0);
+    }
+
+    /**
+     * Remove the registration of an instance, if any, also when disabled
+     * @param instanceId the process instance
+     */
+    public void remove(String instanceId) {
+        LOG.trace("remove({})", instanceId);
+        jdbcTemplate.update(SQL_DELETE, instanceId);
+    }
+}
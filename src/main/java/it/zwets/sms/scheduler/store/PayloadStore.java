@@ -0,0 +1,161 @@
+package it.zwets.sms.scheduler.store;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Content-addressed store for the (encrypted) SMS payloads.
+ *
+ * Keeps the payloads in table <code>sms_payload</code>, out of the process
+ * variables, so that the queries that fetch process variables do not move
+ * the payload bytes.  Process instances hold the payload id in variable
+ * <code>payloadId</code>, and the payload is read only when the SMS is sent.
+ *
+ * The id of a payload is the hex SHA-256 of its content, so that identical
+ * payloads (e.g. a broadcast to a batch, or a resubmitted request) are stored
+ * once.  Each row counts its references, and is deleted when the last is
+ * removed.  Payloads are stored deflated.
+ *
+ * @author zwets
+ */
+@Repository
+public class PayloadStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PayloadStore.class);
+
+    private static final String SQL_INSERT =
+            "INSERT INTO sms_payload (id, data, refs) VALUES (?, ?, 1)";
+    private static final String SQL_ADD_REF =
+            "UPDATE sms_payload SET refs = refs + 1 WHERE id = ?";
+    private static final String SQL_DROP_REF =
+            "UPDATE sms_payload SET refs = refs - 1 WHERE id = ?";
+    private static final String SQL_DELETE =
+            "DELETE FROM sms_payload WHERE id = ? AND refs <= 0";
+    private static final String SQL_SELECT =
+            "SELECT data FROM sms_payload WHERE id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate savepoint;
+
+    public PayloadStore(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.savepoint = new TransactionTemplate(transactionManager);
+        this.savepoint.setPropagationBehavior(TransactionDefinition.PROPAGATION_NESTED);
+    }
+
+    /**
+     * Store a payload, or add a reference to it if already stored
+     * @param payload the payload, not null
+     * @return the id to retrieve it by
+     */
+    public String put(String payload) {
+        if (payload == null) {
+            throw new IllegalArgumentException("Payload must not be null");
+        }
+
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        String id = hash(bytes);
+        LOG.trace("put({})", id);
+
+        if (jdbcTemplate.update(SQL_ADD_REF, id) == 0) {
+            try { // in a savepoint, as a failed statement aborts the transaction on some databases
+                savepoint.executeWithoutResult(status -> jdbcTemplate.update(SQL_INSERT, id, deflate(bytes)));
+            }
+            catch (DuplicateKeyException e) { // lost a race with a concurrent put
+                jdbcTemplate.update(SQL_ADD_REF, id);
+            }
+        }
+
+        return id;
+    }
+
+    /**
+     * Retrieve a payload
+     * @param id the payload id
+     * @return the payload, or null if id is null or unknown
+     */
+    public String get(String id) {
+        if (id == null) {
+            return null;
+        }
+        List<byte[]> data = jdbcTemplate.queryForList(SQL_SELECT, byte[].class, id);
+        return data.isEmpty() ? null : new String(inflate(data.get(0)), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Remove a reference to a payload, deleting it if this was the last
+     * @param id the payload id
+     * @return true if the payload was deleted
+     */
+    public boolean remove(String id) {
+        LOG.trace("remove({})", id);
+        return id != null
+                && jdbcTemplate.update(SQL_DROP_REF, id) > 0
+                && jdbcTemplate.update(SQL_DELETE, id) > 0;
+    }
+
+    private static String hash(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        }
+        catch (NoSuchAlgorithmException e) { // every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] deflate(byte[] bytes) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 64);
+            byte[] buf = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(buf, 0, deflater.deflate(buf));
+            }
+            return out.toByteArray();
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 2);
+            byte[] buf = new byte[4096];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buf);
+                if (n == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("Truncated payload data");
+                }
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        }
+        catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt payload data", e);
+        }
+        finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package it.zwets.sms.scheduler.store;
+
+import java.time.Instant;
+import java.util.Set;
+
+import org.flowable.common.engine.api.delegate.event.FlowableEngineEntityEvent;
+import org.flowable.common.engine.api.delegate.event.FlowableEngineEventType;
+import org.flowable.engine.delegate.event.AbstractFlowableEngineEventListener;
+import org.flowable.engine.history.HistoricProcessInstance;
+import org.flowable.variable.api.event.FlowableVariableEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.zwets.sms.scheduler.SmsSchedulerConfiguration.Constants;
+
+/**
+ * Engine event listener that maintains the {@link SmsStatusStore}.
+ *
+ * Adds the row when the history of an SMS scheduler process instance is
+ * created (which the engine does before it sets the start variables), then
+ * updates it on each change of a projected variable, and at process end.
+ * Runs synchronously in the engine's transaction, so the projection commits
+ * or rolls back with the process state.
+ *
+ * Variable events of other processes find no row, and leave the store as is.
+ *
+ * @author zwets
+ */
+public class SmsStatusProjector extends AbstractFlowableEngineEventListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SmsStatusProjector.class);
+
+    private final SmsStatusStore store;
+
+    public SmsStatusProjector(SmsStatusStore store) {
+        super(Set.of(
+                FlowableEngineEventType.HISTORIC_PROCESS_INSTANCE_CREATED,
+                FlowableEngineEventType.VARIABLE_CREATED,
+                FlowableEngineEventType.VARIABLE_UPDATED,
+                FlowableEngineEventType.HISTORIC_PROCESS_INSTANCE_ENDED));
+        this.store = store;
+    }
+
+    @Override
+    protected void historicProcessInstanceCreated(FlowableEngineEntityEvent event) {
+        if (event.getEntity() instanceof HistoricProcessInstance hpi
+                && Constants.SMS_SCHEDULER_PROCESS_NAME.equals(hpi.getProcessDefinitionKey())) {
+            LOG.trace("Projecting new instance {}", hpi.getId());
+            store.add(new SmsStatusStore.Row(hpi.getId(), null, null, null, null, null, null, null,
+                    hpi.getStartTime().toInstant(), null, -1, null));
+        }
+    }
+
+    @Override
+    protected void variableCreated(FlowableVariableEvent event) {
+        projectVariable(event);
+    }
+
+    @Override
+    protected void variableUpdatedEvent(FlowableVariableEvent event) {
+        projectVariable(event);
+    }
+
+    @Override
+    protected void historicProcessInstanceEnded(FlowableEngineEntityEvent event) {
+        if (event.getEntity() instanceof HistoricProcessInstance hpi && hpi.getEndTime() != null) {
+            store.setEnded(hpi.getId(), hpi.getEndTime().toInstant());
+        }
+    }
+
+    /**
+     * Must fail, as a projection that silently missed an update would
+     * report a wrong status until the instance is gone.
+     */
+    @Override
+    public boolean isFailOnException() {
+        return true;
+    }
+
+    private void projectVariable(FlowableVariableEvent event) {
+        if (event.getProcessInstanceId() != null) {
+            Object value = event.getVariableValue();
+            store.setVariable(event.getProcessInstanceId(), event.getVariableName(),
+                    value == null && Constants.VAR_SMS_RETRIES.equals(event.getVariableName()) ? -1 : value);
+        }
+    }
+}
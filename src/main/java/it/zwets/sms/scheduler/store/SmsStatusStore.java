@@ -0,0 +1,335 @@
+package it.zwets.sms.scheduler.store;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import it.zwets.sms.scheduler.SmsSchedulerConfiguration.Constants;
+
+/**
+ * Status projection of the SMS scheduler process instances.
+ *
+ * Holds one narrow row per instance in table <code>sms_status</code>, kept
+ * up to date by the {@link SmsStatusProjector} as the process variables change.
+ * Status queries read this table through its (client_id, ..., started, id)
+ * indexes, rather than the Flowable history with its variable joins.
+ *
+ * Rows are returned in (started, id) order, and pages continue from the
+ * (started, id) of the last row of the previous page (keyset paging).
+ *
+ * @author zwets
+ */
+@Repository
+public class SmsStatusStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SmsStatusStore.class);
+
+    /** Maps the projected process variables to their columns */
+    static final Map<String, String> VARIABLE_COLUMNS = Map.of(
+            Constants.VAR_CLIENT_ID, "client_id",
+            Constants.VAR_BATCH_ID, "batch_id",
+            Constants.VAR_CLIENT_KEY, "client_key",
+            Constants.VAR_TARGET_ID, "target_id",
+            Constants.VAR_SMS_STATUS, "status",
+            Constants.VAR_SMS_DUETIME, "due_time",
+            Constants.VAR_SMS_DEADLINE, "deadline",
+            Constants.VAR_SMS_RETRIES, "retries",
+            Constants.VAR_USER_ID, "user_id");
+
+    private static final String COLUMNS =
+            "id, client_id, batch_id, client_key, target_id, status, due_time, deadline, started, ended, retries, user_id";
+
+    private static final String SQL_INSERT =
+            "INSERT INTO sms_status (" + COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String SQL_UPDATE =
+            "UPDATE sms_status SET %s = ? WHERE id = ?";
+    private static final String SQL_DELETE =
+            "DELETE FROM sms_status WHERE id = ?";
+    private static final String SQL_SELECT =
+            "SELECT " + COLUMNS + " FROM sms_status";
+    private static final String SQL_COUNT =
+            "SELECT COUNT(*) FROM sms_status";
+    private static final String SQL_MARKER_EXISTS =
+            "SELECT COUNT(*) FROM sms_status_marker WHERE name = ?";
+    private static final String SQL_MARKER_INSERT =
+            "INSERT INTO sms_status_marker (name, created) VALUES (?, ?)";
+    private static final String SQL_OVERDUE =
+            "SELECT client_id, COUNT(*), MIN(due_time) FROM sms_status "
+            + "WHERE status = '" + Constants.SMS_STATUS_SCHEDULED + "' AND due_time < ? AND ended IS NULL GROUP BY client_id ORDER BY client_id";
+
+    private static final String SQL_ACTIVE_FOR_TARGETS =
+            "SELECT id FROM sms_status WHERE client_id = ? AND target_id IN (%s) AND ended IS NULL";
+    private static final String SQL_SCHEDULED =
+            "SELECT client_id, due_time FROM sms_status "
+            + "WHERE status = '" + Constants.SMS_STATUS_SCHEDULED + "' AND due_time > ? AND ended IS NULL";
+
+    private static final RowMapper<Row> ROW_MAPPER = SmsStatusStore::mapRow;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /** The number of SMS of a client past their due time but not yet sent, and the oldest due time */
+    public final record Overdue(String clientId, int count, Instant oldest) { }
+
+    /** A projected status row */
+    public final record Row(
+            String id, String clientId, String batchId, String clientKey, String targetId, String status,
+            Instant dueTime, String deadline, Instant started, Instant ended, int retries, String userId) { }
+
+    /**
+     * The selection criteria for a query, all optional.  The from and till
+     * bounds on the start time are inclusive.
+     */
+    public final record Query(
+            String clientId, String batchId, String clientKey, String targetId, String status, Instant from, Instant till) {
+
+        /** Selects all rows */
+        public static final Query ALL = new Query(null, null, null, null, null, null, null);
+
+        public static Query ofClient(String clientId) {
+            return new Query(clientId, null, null, null, null, null, null);
+        }
+
+        public Query withBatch(String batchId) {
+            return new Query(clientId, batchId, clientKey, targetId, status, from, till);
+        }
+
+        public Query withClientKey(String clientKey) {
+            return new Query(clientId, batchId, clientKey, targetId, status, from, till);
+        }
+
+        public Query withTarget(String targetId) {
+            return new Query(clientId, batchId, clientKey, targetId, status, from, till);
+        }
+
+        public Query withStatus(String status) {
+            return new Query(clientId, batchId, clientKey, targetId, status, from, till);
+        }
+
+        public Query between(Instant from, Instant till) {
+            return new Query(clientId, batchId, clientKey, targetId, status, from, till);
+        }
+    }
+
+    public SmsStatusStore(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Add a row unless one with its id is present
+     * @param row the row to add
+     * @return true if the row was added
+     */
+    public boolean add(Row row) {
+        LOG.trace("add({})", row.id());
+        try {
+            return jdbcTemplate.update(SQL_INSERT,
+                    row.id(), row.clientId(), row.batchId(), row.clientKey(), row.targetId(), row.status(),
+                    toTimestamp(row.dueTime()), row.deadline(), toTimestamp(row.started()), toTimestamp(row.ended()),
+                    row.retries(), row.userId()) > 0;
+        }
+        catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Set the column for a process variable, if it is projected
+     * @param id the process instance id
+     * @param variable the variable name
+     * @param value its new value
+     * @return true if the variable is projected and the row was present
+     */
+    public boolean setVariable(String id, String variable, Object value) {
+        String column = VARIABLE_COLUMNS.get(variable);
+        if (column == null) {
+            return false;
+        }
+        LOG.trace("setVariable({},{})", id, variable);
+        if (value instanceof Instant t) {
+            value = Timestamp.from(t);
+        }
+        return jdbcTemplate.update(SQL_UPDATE.formatted(column), value, id) > 0;
+    }
+
+    /**
+     * Set the end time
+     * @param id the process instance id
+     * @param ended the end time
+     * @return true if the row was present
+     */
+    public boolean setEnded(String id, Instant ended) {
+        LOG.trace("setEnded({})", id);
+        return jdbcTemplate.update(SQL_UPDATE.formatted("ended"), toTimestamp(ended), id) > 0;
+    }
+
+    /**
+     * Remove a row
+     * @param id the process instance id
+     * @return true if the row was present
+     */
+    public boolean remove(String id) {
+        LOG.trace("remove({})", id);
+        return jdbcTemplate.update(SQL_DELETE, id) > 0;
+    }
+
+    /**
+     * Find the row for a process instance
+     * @param id the process instance id
+     * @return the row or null
+     */
+    public Row find(String id) {
+        List<Row> rows = jdbcTemplate.query(SQL_SELECT + " WHERE id = ?", ROW_MAPPER, id);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    /**
+     * Find all rows matching a query
+     * @param query the selection criteria
+     * @return the rows in (started, id) order
+     */
+    public List<Row> findAll(Query query) {
+        return findPage(query, null, null, 0);
+    }
+
+    /**
+     * Find a page of rows matching a query, after a given row
+     * @param query the selection criteria
+     * @param afterStarted start time of the last row of the previous page, or null for the first page
+     * @param afterId id of the last row of the previous page
+     * @param limit the maximum number of rows to return, or 0 for no limit
+     * @return the rows in (started, id) order
+     */
+    public List<Row> findPage(Query query, Instant afterStarted, String afterId, int limit) {
+
+        StringBuilder sql = new StringBuilder(SQL_SELECT);
+        List<Object> args = new ArrayList<Object>();
+
+        where(sql, args, "client_id = ?", query.clientId());
+        where(sql, args, "batch_id = ?", query.batchId());
+        where(sql, args, "client_key = ?", query.clientKey());
+        where(sql, args, "target_id = ?", query.targetId());
+        where(sql, args, "status = ?", query.status());
+        where(sql, args, "started >= ?", toTimestamp(query.from()));
+        where(sql, args, "started <= ?", toTimestamp(query.till()));
+
+        if (afterStarted != null) {
+            Timestamp ts = Timestamp.from(afterStarted);
+            where(sql, args, "(started > ? OR (started = ? AND id > ?))", ts);
+            args.add(ts);
+            args.add(afterId);
+        }
+
+        sql.append(" ORDER BY started, id");
+        if (limit > 0) {
+            sql.append(" FETCH FIRST %d ROWS ONLY".formatted(limit));
+        }
+
+        return jdbcTemplate.query(sql.toString(), ROW_MAPPER, args.toArray());
+    }
+
+    /**
+     * Find the SMS of a client for any of a list of targets that have not ended
+     * @param clientId the client
+     * @param targetIds the targets, not so many that the IN list gets too long
+     * @return the ids of the SMS
+     */
+    public List<String> findActiveForTargets(String clientId, List<String> targetIds) {
+        if (targetIds.isEmpty()) {
+            return List.of();
+        }
+        List<Object> args = new ArrayList<Object>(targetIds.size() + 1);
+        args.add(clientId);
+        args.addAll(targetIds);
+        return jdbcTemplate.queryForList(SQL_ACTIVE_FOR_TARGETS.formatted(String.join(", ", Collections.nCopies(targetIds.size(), "?"))),
+                String.class, args.toArray());
+    }
+
+    /**
+     * Count the rows
+     * @return the number of rows in the projection
+     */
+    public int count() {
+        Integer count = jdbcTemplate.queryForObject(SQL_COUNT, Integer.class);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Check whether a marker was set
+     * @param name the marker name
+     * @return true if {@link #setMarker(String)} was done for name
+     */
+    public boolean hasMarker(String name) {
+        Integer count = jdbcTemplate.queryForObject(SQL_MARKER_EXISTS, Integer.class, name);
+        return count != null && count > 0;
+    }
+
+    /**
+     * Set a marker, recording that a one-off operation completed
+     * @param name the marker name
+     */
+    public void setMarker(String name) {
+        try {
+            jdbcTemplate.update(SQL_MARKER_INSERT, name, toTimestamp(Instant.now()));
+        }
+        catch (DuplicateKeyException e) {
+            // was set already
+        }
+    }
+
+    /**
+     * Find per client the SMS that are scheduled with a due time before a
+     * given time, i.e. whose scheduler timer is due but has not fired
+     * @param before the time, normally now
+     * @return the overdue counts, ordered by client
+     */
+    public List<Overdue> findOverdue(Instant before) {
+        return jdbcTemplate.query(SQL_OVERDUE, (rs, rowNum) ->
+                new Overdue(rs.getString(1), rs.getInt(2), toInstant(rs.getTimestamp(3))), toTimestamp(before));
+    }
+
+    /**
+     * Stream the SMS that are scheduled with a due time after a given time
+     * to a consumer, without collecting them in memory
+     * @param after the time, normally now
+     * @param consumer receives the clientId and due time of each SMS
+     */
+    public void forEachScheduled(Instant after, BiConsumer<String, Instant> consumer) {
+        jdbcTemplate.query(SQL_SCHEDULED, rs -> { consumer.accept(rs.getString(1), toInstant(rs.getTimestamp(2))); }, toTimestamp(after));
+    }
+
+    /* Append condition to sql and value to args, unless value is null. */
+    private static void where(StringBuilder sql, List<Object> args, String condition, Object value) {
+        if (value != null) {
+            sql.append(args.isEmpty() ? " WHERE " : " AND ").append(condition);
+            args.add(value);
+        }
+    }
+
+    private static Row mapRow(ResultSet rs, int rowNum) throws SQLException {
+        return new Row(
+                rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5), rs.getString(6),
+                toInstant(rs.getTimestamp(7)), rs.getString(8), toInstant(rs.getTimestamp(9)), toInstant(rs.getTimestamp(10)),
+                rs.getInt(11), rs.getString(12));
+    }
+
+    private static Timestamp toTimestamp(Instant t) {
+        return t == null ? null : Timestamp.from(t);
+    }
+
+    private static Instant toInstant(Timestamp ts) {
+        return ts == null ? null : ts.toInstant();
+    }
+}
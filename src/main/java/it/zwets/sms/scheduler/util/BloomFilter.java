@@ -0,0 +1,125 @@
+package it.zwets.sms.scheduler.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe Bloom filter over strings.
+ *
+ * Answers "definitely not present" or "possibly present" using a bit array
+ * of a size computed from its capacity and target false-positive rate.
+ * Elements cannot be removed; a filter that held an element keeps answering
+ * "possibly present" for it until it is rebuilt.
+ *
+ * Uses double hashing (Kirsch-Mitzenmacher) on a 64-bit string hash to derive
+ * the bit positions.  Additions and lookups are lock-free.
+ *
+ * @author zwets
+ */
+public class BloomFilter {
+
+    private static final double LN2 = Math.log(2);
+
+    private final int capacity;
+    private final int numBits;
+    private final int numHashes;
+    private final AtomicLongArray bits;
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * Create a filter sized for capacity elements at the given false-positive rate
+     * @param capacity the number of elements the filter is sized for, at least 1
+     * @param fpp the target false-positive rate when at capacity, in (0,1)
+     */
+    public BloomFilter(int capacity, double fpp) {
+        if (capacity < 1 || !(fpp > 0.0 && fpp < 1.0)) {
+            throw new IllegalArgumentException("invalid Bloom filter capacity or fpp: %d, %f".formatted(capacity, fpp));
+        }
+        long m = (long) Math.ceil(-capacity * Math.log(fpp) / (LN2 * LN2));
+        this.capacity = capacity;
+        this.numBits = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, m));
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / capacity * LN2));
+        this.bits = new AtomicLongArray((numBits + 63) >>> 6);
+    }
+
+    /**
+     * Add an element
+     * @param s the element
+     * @return true if the filter changed, i.e. the element was definitely new
+     */
+    public boolean add(String s) {
+        long h = hash(s);
+        int h1 = (int) h, h2 = (int) (h >>> 32) | 1;
+        boolean changed = false;
+        for (int i = 0; i < numHashes; ++i) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % numBits;
+            long mask = 1L << bit;
+            int at = bit >>> 6;
+            long prev = bits.getAndAccumulate(at, mask, (a, b) -> a | b);
+            changed |= (prev & mask) == 0;
+        }
+        if (changed) {
+            count.incrementAndGet();
+        }
+        return changed;
+    }
+
+    /**
+     * Check whether an element may have been added
+     * @param s the element
+     * @return false if s was definitely not added, true if it possibly was
+     */
+    public boolean mightContain(String s) {
+        long h = hash(s);
+        int h1 = (int) h, h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < numHashes; ++i) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % numBits;
+            if ((bits.get(bit >>> 6) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getNumBits() {
+        return numBits;
+    }
+
+    public int getNumHashes() {
+        return numHashes;
+    }
+
+    /**
+     * Number of added elements (not counting those that hashed onto bits
+     * that were all already set)
+     */
+    public int getCount() {
+        return count.get();
+    }
+
+    /**
+     * Estimate the current false-positive rate from the element count
+     * @return (1 - e^(-kn/m))^k
+     */
+    public double getExpectedFpp() {
+        return Math.pow(1.0 - Math.exp(-(double) numHashes * count.get() / numBits), numHashes);
+    }
+
+    /* 64-bit FNV-1a over the chars, finished with the MurmurHash3 mixer. */
+    private static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); ++i) {
+            h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,108 @@
+package it.zwets.sms.scheduler.util;
+
+import java.time.Instant;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Plans the due time of an SMS into the slots of its {@link Scheduler},
+ * within the send budgets of the {@link SendRateShaper}.
+ *
+ * The shaper reserves the first second in a slot that has room in the
+ * budgets.  When a slot is too short for its batch at the budgeted rate,
+ * the SMS that don't fit are planned into the next slot of the schedule,
+ * rather than crammed in at the end and left to expire.
+ *
+ * The reserved capacity is shared by all instances triaged on this node,
+ * and can be inspected with {@link #forecast(String, Instant, Instant, int)}.
+ * Reservations are released and restored through the ReservationTracker.
+ *
+ * @author zwets
+ */
+public class DueTimePlanner {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DueTimePlanner.class);
+
+    /** The planned due time and the deadline of the slot it is in, and the number of slots skipped */
+    public final record Plan(Instant dueTime, Instant deadline, int spills) { }
+
+    private final SendRateShaper shaper;
+
+    public DueTimePlanner(SendRateShaper shaper) {
+        this.shaper = shaper;
+    }
+
+    /**
+     * Whether the planner moves due times, that is whether any budget is set
+     * @return true if the shaper is enabled
+     */
+    public boolean isEnabled() {
+        return shaper.isEnabled();
+    }
+
+    /**
+     * Plan a send for a client in the earliest slot with room at or after an instant
+     * @param clientId the client
+     * @param scheduler the schedule of the SMS
+     * @param from the earliest instant to send
+     * @param deadline the end of the slot that <code>from</code> is in
+     * @return the plan, or null if no slot in the schedule has room
+     */
+    public Plan plan(String clientId, Scheduler scheduler, Instant from, Instant deadline) {
+
+        int spills = 0;
+
+        while (from != null) {
+
+            Instant reserved = shaper.reserve(clientId, from, deadline);
+
+            if (reserved != null) {
+                return new Plan(reserved, deadline, spills);
+            }
+
+            // No room in this slot, move to the start of the next
+            from = deadline == null ? null : scheduler.getFirstAvailableInstant(deadline);
+            deadline = scheduler.getDeadlineInstant(from);
+            ++spills;
+
+            LOG.debug("No send budget for client {} in slot, moving to {}", clientId, from);
+        }
+
+        return null;
+    }
+
+    /**
+     * Release the reservation of a planned send that will not happen
+     * @param clientId the client
+     * @param dueTime the planned due time
+     * @see SendRateShaper#release(String, Instant)
+     */
+    public void release(String clientId, Instant dueTime) {
+        shaper.release(clientId, dueTime);
+    }
+
+    /**
+     * Restore the reservation of a send planned before a restart
+     * @param clientId the client
+     * @param dueTime the planned due time
+     * @see SendRateShaper#restore(String, Instant)
+     */
+    public void restore(String clientId, Instant dueTime) {
+        shaper.restore(clientId, dueTime);
+    }
+
+    /**
+     * Report the reserved sends per time bucket
+     * @param clientId the client, or null for all clients
+     * @param from the start of the first bucket
+     * @param till the instant before which the last bucket starts
+     * @param bucketSeconds the bucket length in seconds
+     * @return the buckets
+     * @see SendRateShaper#forecast(String, Instant, Instant, int)
+     */
+    public List<SendRateShaper.Bucket> forecast(String clientId, Instant from, Instant till, int bucketSeconds) {
+        return shaper.forecast(clientId, from, till, bucketSeconds);
+    }
+}
@@ -0,0 +1,141 @@
+package it.zwets.sms.scheduler.util;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Streaming JSON codec for slots and schedules.
+ *
+ * Reads and writes the JSON representations of {@link Slot}, an object with
+ * fields <code>from</code> and <code>till</code>, and of {@link Scheduler},
+ * an array of such objects.  Works on the from/till longs directly with the
+ * Jackson streaming API, so that no ObjectMapper (or Slot) is needed.
+ *
+ * The JsonFactory is thread-safe and shared.  Errors are thrown as
+ * IOException (typically a JsonParseException with the location).
+ *
+ * @author zwets
+ */
+final class ScheduleJson {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private ScheduleJson() {
+    }
+
+    /**
+     * Write the slot with given from and till as a JSON object
+     */
+    static String writeSlot(long from, long till) throws IOException {
+        StringWriter out = new StringWriter(40);
+        try (JsonGenerator gen = JSON.createGenerator(out)) {
+            writeSlot(gen, from, till);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Write the from/till pairs as a JSON array of slot objects
+     */
+    static String writeSlots(long[] pairs) throws IOException {
+        StringWriter out = new StringWriter(16 + pairs.length * 20);
+        try (JsonGenerator gen = JSON.createGenerator(out)) {
+            gen.writeStartArray();
+            for (int i = 0; i < pairs.length; i += 2) {
+                writeSlot(gen, pairs[i], pairs[i+1]);
+            }
+            gen.writeEndArray();
+        }
+        return out.toString();
+    }
+
+    /**
+     * Read a JSON slot object into a from/till pair
+     * @return array of length 2 holding from and till
+     */
+    static long[] readSlot(String json) throws IOException {
+        long[] pair = new long[2];
+        try (JsonParser p = JSON.createParser(json)) {
+            expect(p, p.nextToken(), JsonToken.START_OBJECT);
+            readSlot(p, pair, 0);
+            expectEnd(p);
+        }
+        return pair;
+    }
+
+    /**
+     * Read a JSON array of slot objects into from/till pairs
+     * @return array holding from and till of the i-th slot at 2i and 2i+1
+     */
+    static long[] readSlots(String json) throws IOException {
+        long[] pairs = new long[8];
+        int n = 0;
+        try (JsonParser p = JSON.createParser(json)) {
+            expect(p, p.nextToken(), JsonToken.START_ARRAY);
+            JsonToken t;
+            while ((t = p.nextToken()) != JsonToken.END_ARRAY) {
+                expect(p, t, JsonToken.START_OBJECT);
+                if (n == pairs.length) {
+                    pairs = Arrays.copyOf(pairs, 2 * n);
+                }
+                readSlot(p, pairs, n);
+                n += 2;
+            }
+            expectEnd(p);
+        }
+        return n == pairs.length ? pairs : Arrays.copyOf(pairs, n);
+    }
+
+    private static void writeSlot(JsonGenerator gen, long from, long till) throws IOException {
+        gen.writeStartObject();
+        gen.writeNumberField("from", from);
+        gen.writeNumberField("till", till);
+        gen.writeEndObject();
+    }
+
+    /* Reads the fields of the slot object whose START_OBJECT was just read. */
+    private static void readSlot(JsonParser p, long[] out, int at) throws IOException {
+        boolean hasFrom = false, hasTill = false;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.currentName();
+            expect(p, p.nextToken(), JsonToken.VALUE_NUMBER_INT);
+            if ("from".equals(name)) {
+                out[at] = p.getLongValue();
+                hasFrom = true;
+            }
+            else if ("till".equals(name)) {
+                out[at+1] = p.getLongValue();
+                hasTill = true;
+            }
+            else {
+                throw new JsonParseException(p, "Unrecognised field in Slot: " + name);
+            }
+        }
+        if (!hasFrom || !hasTill) {
+            throw new JsonParseException(p, "Slot must have fields from and till");
+        }
+        if (out[at] >= out[at+1]) {
+            throw new JsonParseException(p, "time slot must end after it starts");
+        }
+    }
+
+    private static void expect(JsonParser p, JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new JsonParseException(p, "Expected %s but found %s".formatted(expected, actual));
+        }
+    }
+
+    private static void expectEnd(JsonParser p) throws IOException {
+        JsonToken t = p.nextToken();
+        if (t != null) {
+            throw new JsonParseException(p, "Unexpected trailing content: " + t);
+        }
+    }
+}
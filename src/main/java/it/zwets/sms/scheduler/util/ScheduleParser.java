@@ -0,0 +1,226 @@
+package it.zwets.sms.scheduler.util;
+
+import java.util.Arrays;
+
+/**
+ * Single pass parser for schedule and slot strings.
+ *
+ * Parses the semicolon separated list of slots accepted by {@link Scheduler},
+ * where each slot is either <code>long-long</code> (seconds since the Epoch)
+ * or <code>iso/iso</code> (ISO8601 date-time with offset, as accepted by
+ * {@link java.time.format.DateTimeFormatter#ISO_OFFSET_DATE_TIME}, with a
+ * four-digit year).  Fractional seconds are accepted and truncated.
+ *
+ * The parser works directly on the characters and creates no objects other
+ * than its result array.  Errors are reported as IllegalArgumentException
+ * whose message gives the offset in the input at which parsing failed.
+ *
+ * @author zwets
+ */
+final class ScheduleParser {
+
+    private ScheduleParser() {
+    }
+
+    /**
+     * Parse a schedule into an array of (unordered, unmerged) from/till pairs.
+     * Empty segments (e.g. a trailing semicolon) are ignored.
+     * @param str the schedule string
+     * @return array with from and till of the i-th slot at 2i and 2i+1
+     * @throws IllegalArgumentException with the offset of the error
+     */
+    static long[] parseSchedule(CharSequence str) {
+        long[] pairs = new long[8];
+        int n = 0;
+
+        int len = str.length();
+        int start = 0;
+        while (start < len) {
+            int end = indexOf(str, ';', start, len);
+            if (end > start) {
+                if (n == pairs.length) {
+                    pairs = Arrays.copyOf(pairs, 2 * n);
+                }
+                parseSlot(str, start, end, pairs, n);
+                n += 2;
+            }
+            start = end + 1;
+        }
+
+        return n == pairs.length ? pairs : Arrays.copyOf(pairs, n);
+    }
+
+    /**
+     * Parse one slot from <code>str[start,end)</code> into <code>out[at]</code> and <code>out[at+1]</code>.
+     * @throws IllegalArgumentException with the offset of the error
+     */
+    static void parseSlot(CharSequence str, int start, int end, long[] out, int at) {
+        int slash = indexOf(str, '/', start, end);
+        if (slash != end) {
+            out[at] = parseIso(str, start, slash);
+            out[at+1] = parseIso(str, slash + 1, end);
+        }
+        else {
+            int dash = indexOf(str, '-', start, end);
+            if (dash == end) {
+                throw error(str, start, "not a recognised Slot format");
+            }
+            out[at] = parseLong(str, start, dash);
+            out[at+1] = parseLong(str, dash + 1, end);
+        }
+        if (out[at] >= out[at+1]) {
+            throw error(str, start, "time slot must end after it starts");
+        }
+    }
+
+    /* Parse unsigned decimal str[start,end) to long. */
+    private static long parseLong(CharSequence str, int start, int end) {
+        if (start == end) {
+            throw error(str, start, "expected digits");
+        }
+        long val = 0;
+        for (int i = start; i < end; ++i) {
+            int d = str.charAt(i) - '0';
+            if (d < 0 || d > 9) {
+                throw error(str, i, "expected digit");
+            }
+            if (val > (Long.MAX_VALUE - d) / 10) {
+                throw error(str, start, "number too large");
+            }
+            val = val * 10 + d;
+        }
+        return val;
+    }
+
+    /* Parse ISO8601 date-time with offset in str[start,end) to seconds since the Epoch. */
+    private static long parseIso(CharSequence str, int start, int end) {
+        int p = start;
+
+        int year = digits(str, p, 4, end); p += 4;
+        expect(str, p++, end, '-');
+        int month = digits(str, p, 2, end); p += 2;
+        expect(str, p++, end, '-');
+        int day = digits(str, p, 2, end); p += 2;
+
+        if (p >= end || (str.charAt(p) != 'T' && str.charAt(p) != 't')) {
+            throw error(str, p, "expected 'T'");
+        }
+        ++p;
+
+        int hour = digits(str, p, 2, end); p += 2;
+        expect(str, p++, end, ':');
+        int minute = digits(str, p, 2, end); p += 2;
+
+        int second = 0;
+        if (p < end && str.charAt(p) == ':') {
+            second = digits(str, ++p, 2, end); p += 2;
+            if (p < end && str.charAt(p) == '.') {
+                int q = ++p;
+                while (p < end && p - q < 9 && isDigit(str.charAt(p))) {
+                    ++p;
+                }
+                if (p == q) {
+                    throw error(str, p, "expected fraction digits");
+                }
+            }
+        }
+
+        if (month < 1 || month > 12) {
+            throw error(str, start + 5, "invalid month");
+        }
+        if (day < 1 || day > daysInMonth(year, month)) {
+            throw error(str, start + 8, "invalid day of month");
+        }
+        if (hour > 23 || minute > 59 || second > 59) {
+            throw error(str, start + 11, "invalid time of day");
+        }
+
+        if (p >= end) {
+            throw error(str, p, "expected zone offset");
+        }
+
+        int offset = 0;
+        char c = str.charAt(p);
+        if (c == 'Z' || c == 'z') {
+            ++p;
+        }
+        else if (c == '+' || c == '-') {
+            int q = p++;
+            int oh = digits(str, p, 2, end); p += 2;
+            expect(str, p++, end, ':');
+            int om = digits(str, p, 2, end); p += 2;
+            int os = 0;
+            if (p < end && str.charAt(p) == ':') {
+                os = digits(str, ++p, 2, end); p += 2;
+            }
+            if (oh > 18 || om > 59 || os > 59 || (oh == 18 && (om | os) != 0)) {
+                throw error(str, q, "invalid zone offset");
+            }
+            offset = oh * 3600 + om * 60 + os;
+            if (c == '-') {
+                offset = -offset;
+            }
+        }
+        else {
+            throw error(str, p, "expected zone offset");
+        }
+
+        if (p != end) {
+            throw error(str, p, "unexpected character");
+        }
+
+        return daysSinceEpoch(year, month, day) * 86400L + hour * 3600 + minute * 60 + second - offset;
+    }
+
+    /* Days since 1970-01-01 of the proleptic Gregorian date, after H. Hinnant's days_from_civil. */
+    private static long daysSinceEpoch(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yoe = y - era * 400;
+        int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097L + doe - 719468;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        return switch (month) {
+            case 2 -> (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4, 6, 9, 11 -> 30;
+            default -> 31;
+        };
+    }
+
+    /* Parse exactly n digits at str[p]. */
+    private static int digits(CharSequence str, int p, int n, int end) {
+        int val = 0;
+        for (int i = p; i < p + n; ++i) {
+            if (i >= end || !isDigit(str.charAt(i))) {
+                throw error(str, i, "expected digit");
+            }
+            val = val * 10 + str.charAt(i) - '0';
+        }
+        return val;
+    }
+
+    private static void expect(CharSequence str, int p, int end, char c) {
+        if (p >= end || str.charAt(p) != c) {
+            throw error(str, p, "expected '" + c + "'");
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int indexOf(CharSequence str, char c, int start, int end) {
+        int i = start;
+        while (i < end && str.charAt(i) != c) {
+            ++i;
+        }
+        return i;
+    }
+
+    private static IllegalArgumentException error(CharSequence str, int offset, String what) {
+        return new IllegalArgumentException("Invalid schedule at offset %d: %s: %s".formatted(offset, what, str));
+    }
+}
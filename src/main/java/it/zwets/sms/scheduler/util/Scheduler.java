@@ -1,89 +1,109 @@
 package it.zwets.sms.scheduler.util;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.time.Instant;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
-import java.util.Scanner;
-import java.util.stream.Collectors;
-
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * Scheduler manages a schedule which is a list of zero or more {@link Slot}s.
- * 
+ *
  * Scheduler can parse two String formats.  Both are semicolon separated lists
  * of Slots.  Slots can be parsed as either long-long or iso/iso, where long
  * are seconds since the Epoch, and iso is a ISO8601 instant (with time offset).
- * 
- * Scheduler orders and merges the slots upon construction.
- * 
+ *
+ * Scheduler orders and merges the slots upon construction.  Internally the
+ * schedule is a flat array of alternating from and till seconds, so that
+ * lookups are a binary search over the (strictly increasing) slot ends.
+ *
+ * Scheduler is immutable, hence can be shared between threads (see
+ * {@link SchedulerCache}).
+ *
  * @author zwets
  */
 public final class Scheduler implements Serializable {
 
-	private static final long serialVersionUID = 1L;
-
-	private final Slot[] slots;
-	
-	/**
-	 * Create a scheduler with an empty schedule
-	 */
-	public Scheduler() {
-	    this.slots = new Slot[0];
-	}
-
-	/**
-	 * Create a scheduler with an array of slots
-	 * @param slots array of Slots, will be ordered and merged
-	 */
-	public Scheduler(Slot[] slots) {
-	    List<Slot> list = new ArrayList<Slot>();
-	    for (Slot s : slots) {
-	        list = addSlot(list, s.from, s.till);
+    private static final long serialVersionUID = 2L;
+
+    private static final long[] EMPTY = new long[0];
+
+    /* Sorted, merged and non-abutting from/till pairs: from0, till0, from1, till1, ... */
+    private final long[] bounds;
+
+    /**
+     * Create a scheduler with an empty schedule
+     */
+    public Scheduler() {
+        this.bounds = EMPTY;
+    }
+
+    /**
+     * Create a scheduler with an array of slots
+     * @param slots array of Slots, will be ordered and merged
+     */
+    public Scheduler(Slot[] slots) {
+        long[] pairs = new long[2 * slots.length];
+        for (int i = 0; i < slots.length; ++i) {
+            pairs[2*i] = slots[i].from;
+            pairs[2*i+1] = slots[i].till;
         }
-	    this.slots = list.toArray(Slot[]::new);
-	}
+        this.bounds = sortAndMerge(pairs);
+    }
 
-	/**
-	 * Create a scheduler from a string representation of a list of slots
-	 * @param schedule a semicolon-separated string as produced by toString
-	 */
+    /**
+     * Create a scheduler from a string representation of a list of slots
+     * @param schedule a semicolon-separated string as produced by toString
+     * @throws IllegalArgumentException with the offset of the parse error
+     */
     public Scheduler(String schedule) {
-        List<Slot> list = new ArrayList<Slot>();
-        try (Scanner scanner = new Scanner(schedule)) {
-            scanner.useDelimiter(";");
-            while (scanner.hasNext()) {
-                Slot s = Slot.parse(scanner.next());
-                list = addSlot(list, s.from, s.till);
-            }
-        }
-        this.slots = list.toArray(Slot[]::new);
+        this.bounds = sortAndMerge(ScheduleParser.parseSchedule(schedule));
     }
-    
+
+    /* Private constructor taking the already ordered and merged bounds. */
+    private Scheduler(long[] bounds) {
+        this.bounds = bounds;
+    }
+
     /**
      * Getter for the array of slots
-     * @return
+     * @return a newly created array of the ordered and merged slots
      */
     public Slot[] getSlots() {
+        Slot[] slots = new Slot[bounds.length / 2];
+        for (int i = 0; i < slots.length; ++i) {
+            slots[i] = new Slot(bounds[2*i], bounds[2*i+1]);
+        }
         return slots;
     }
 
-    /* Private helper to get first slot that either contains from or is after it. */
-    private Slot getFirstAvailableSlot(long from) {
-        for (Slot s : slots) {
-            if (from < s.till) {
-                return s;
+    /**
+     * The number of (merged) slots in the schedule
+     * @return the number of slots
+     */
+    public int getSlotCount() {
+        return bounds.length / 2;
+    }
+
+    /* Private helper to get index of first slot that either contains from or is after it,
+     * or the slot count if there is no such slot.  Binary search on the slot ends. */
+    private int getFirstAvailableSlot(long from) {
+        int lo = 0;
+        int hi = bounds.length / 2;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (from < bounds[2*mid+1]) {
+                hi = mid;
+            }
+            else {
+                lo = mid + 1;
             }
         }
-        return null;
+        return lo;
     }
-    
+
     /**
      * Get the first available instant in the schedule.
-     * 
+     *
      * @return the earliest instant after now which is in a slot in the schedule; <code>null</code> if no such exists.
      */
     public Instant getFirstAvailableInstant() {
@@ -99,8 +119,11 @@ public final class Scheduler implements Serializable {
         Instant result = null;
         if (from != null) {
             long earliest = from.getEpochSecond();
-            Slot s = getFirstAvailableSlot(earliest);
-            result = s == null ? null : Instant.ofEpochSecond(earliest < s.from ? s.from : earliest);
+            int i = getFirstAvailableSlot(earliest);
+            if (i < bounds.length / 2) {
+                long start = bounds[2*i];
+                result = Instant.ofEpochSecond(earliest < start ? start : earliest);
+            }
         }
         return result;
     }
@@ -113,79 +136,98 @@ public final class Scheduler implements Serializable {
     public Instant getDeadlineInstant(Instant from) {
         Instant result = null;
         if (from != null) {
-            long after = from.getEpochSecond();
-            Slot s = getFirstAvailableSlot(after);
-            result = s == null ? null : Instant.ofEpochSecond(s.till);
+            int i = getFirstAvailableSlot(from.getEpochSecond());
+            if (i < bounds.length / 2) {
+                result = Instant.ofEpochSecond(bounds[2*i+1]);
+            }
         }
         return result;
     }
-    
-    /* Private static method to add a slot to a list, keeping the list
-     * sorted and merging slots necessary. 
+
+    /* Private static method to order and merge slots given as an array of
+     * from/till pairs, returning the from/till pairs of their union.
+     *
+     * The union of the slots does not depend on which from goes with which
+     * till, so we sort the froms and tills independently and sweep them in
+     * a single pass, counting how many slots we are in.  A from equal to a
+     * till sorts first, so that abutting slots get merged.
      */
-	private static List<Slot> addSlot(List<Slot> list, long from, long till) {
+    private static long[] sortAndMerge(long[] pairs) {
 
-        List<Slot> result = new ArrayList<Slot>();
-        
-        int i = 0; // advance i past all slots strictly before us
-        while (i < list.size() && from > list.get(i).till) {
-            result.add(list.get(i++));
-        }
-        
-        // i now is slot before or in which we start; pick earliest from
-        if (i < list.size() && list.get(i).from < from) {
-            from = list.get(i).from; // from is start of slot we are in
+        int n = pairs.length / 2;
+        if (n == 0) {
+            return EMPTY;
         }
 
-        while (i < list.size() && till > list.get(i).till) {
-            ++i; // advance i to the first slot strictly after us
+        long[] froms = new long[n];
+        long[] tills = new long[n];
+        for (int k = 0; k < n; ++k) {
+            froms[k] = pairs[2*k];
+            tills[k] = pairs[2*k+1];
         }
 
-        // i now is slot before or in which we end
-        if (i < list.size() && till >= list.get(i).from) {
-            till = list.get(i++).till; // till is end of slot we were in
+        Arrays.sort(froms);
+        Arrays.sort(tills);
+
+        long[] result = new long[2 * n];
+        int count = 0;
+
+        int i = 0, j = 0, depth = 0;
+        while (i < n) {
+            if (froms[i] <= tills[j]) { // a slot opens
+                if (depth++ == 0) {
+                    result[count++] = froms[i];
+                }
+                ++i;
+            }
+            else { // a slot closes
+                if (--depth == 0) {
+                    result[count++] = tills[j];
+                }
+                ++j;
+            }
         }
 
-        result.add(new Slot(from, till));
-        
-        // add the remaining slots, which are strictly after us
-        while (i < list.size()) {
-            result.add(list.get(i++));
+        // all slots are open, the last till closes the final slot
+        result[count++] = tills[n - 1];
+
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(bounds.length * 11);
+        for (int i = 0; i < bounds.length; i += 2) {
+            if (i != 0) {
+                sb.append(';');
+            }
+            sb.append(bounds[i]).append('-').append(bounds[i+1]);
         }
+        return sb.toString();
+    }
 
-        return result;
-	}
-	
-	@Override
-	public String toString() {
-		return Arrays.stream(slots).map(Slot::toString).collect(Collectors.joining(";"));
-	}
-
-	/**
-	 * Parse a schedule from its JSON representation
-	 * @param json
-	 * @return a new Schedule object or RuntimeException
-	 */
-	public static Scheduler parseJson(String json) {
-	    try {
-	        ObjectMapper mapper = new ObjectMapper();
-            Slot[] slots = mapper.readerFor(Slot[].class).readValue(json);
-            return new Scheduler(slots);
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException("Failed to parse JSON array of Slots");
+    /**
+     * Parse a schedule from its JSON representation
+     * @param json
+     * @return a new Schedule object or RuntimeException
+     */
+    public static Scheduler parseJson(String json) {
+        try {
+            return new Scheduler(sortAndMerge(ScheduleJson.readSlots(json)));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to parse JSON array of Slots", e);
         }
-	}
-	
-	/**
-	 * Write JSON representation of the Schedule as an array of Slot
-	 * @return String
-	 */
-	public String toJson() {
-	    try {
-	        ObjectMapper mapper = new ObjectMapper();
-            return mapper.writeValueAsString(slots);
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException("Failed to convert to JSON array of Slots");
+    }
+
+    /**
+     * Write JSON representation of the Schedule as an array of Slot
+     * @return String
+     */
+    public String toJson() {
+        try {
+            return ScheduleJson.writeSlots(bounds);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to convert to JSON array of Slots", e);
         }
-	}
-}
\ No newline at end of file
+    }
+}
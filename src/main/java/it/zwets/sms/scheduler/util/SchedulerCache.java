@@ -0,0 +1,156 @@
+package it.zwets.sms.scheduler.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.cache.CacheMeterBinder;
+
+/**
+ * Bounded cache of parsed {@link Scheduler} objects keyed by schedule string.
+ *
+ * Batches share the same schedule string across many process instances, and
+ * a Scheduler is immutable, so one parsed instance can serve them all.  The
+ * cache holds at most <code>maxSize</code> entries and evicts the oldest
+ * entry first.  A <code>maxSize</code> of 0 disables caching.
+ *
+ * The application configuration produces a schedulerCache bean and binds its
+ * hit, miss and eviction counts to the actuator metrics as <code>cache.*</code>
+ * with tag <code>cache=schedules</code>.
+ *
+ * @author zwets
+ */
+public class SchedulerCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SchedulerCache.class);
+
+    private final int maxSize;
+    private final ConcurrentHashMap<String, Scheduler> map = new ConcurrentHashMap<String, Scheduler>();
+    private final Queue<String> order = new ConcurrentLinkedQueue<String>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder puts = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Create a cache holding at most maxSize parsed schedules
+     * @param maxSize maximum number of entries, 0 to disable caching
+     */
+    public SchedulerCache(int maxSize) {
+        LOG.debug("SchedulerCache created with maxSize = {}", maxSize);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Return the Scheduler for the schedule string, parsing it if not cached
+     * @param schedule a semicolon-separated schedule string
+     * @return the (shared, immutable) Scheduler
+     * @throws IllegalArgumentException if schedule does not parse (not cached)
+     */
+    public Scheduler get(String schedule) {
+
+        Scheduler scheduler = map.get(schedule);
+
+        if (scheduler != null) {
+            hits.increment();
+            return scheduler;
+        }
+
+        misses.increment();
+        scheduler = new Scheduler(schedule);
+
+        if (maxSize > 0) {
+            Scheduler prev = map.putIfAbsent(schedule, scheduler);
+            if (prev != null) {
+                return prev;
+            }
+            puts.increment();
+            order.add(schedule);
+            while (map.size() > maxSize) {
+                String eldest = order.poll();
+                if (eldest == null) {
+                    break;
+                }
+                if (map.remove(eldest) != null) {
+                    evictions.increment();
+                }
+            }
+        }
+
+        return scheduler;
+    }
+
+    public long size() {
+        return map.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getPutCount() {
+        return puts.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Remove all entries (the counters are not reset)
+     */
+    public void clear() {
+        map.clear();
+        order.clear();
+    }
+
+    /**
+     * Micrometer binder for the cache statistics
+     */
+    public static class Metrics extends CacheMeterBinder<SchedulerCache> {
+
+        public Metrics(SchedulerCache cache) {
+            super(cache, "schedules", Tags.empty());
+        }
+
+        @Override
+        protected Long size() {
+            return getCache().size();
+        }
+
+        @Override
+        protected long hitCount() {
+            return getCache().getHitCount();
+        }
+
+        @Override
+        protected Long missCount() {
+            return getCache().getMissCount();
+        }
+
+        @Override
+        protected Long evictionCount() {
+            return getCache().getEvictionCount();
+        }
+
+        @Override
+        protected long putCount() {
+            return getCache().getPutCount();
+        }
+
+        @Override
+        protected void bindImplementationSpecificMetrics(MeterRegistry registry) {
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package it.zwets.sms.scheduler.util;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Spreads the sends to the gateway over time, within per-client and global
+ * budgets of sends per second.
+ *
+ * Keeps the number of sends reserved in each second, in total and per client.
+ * {@link #reserve(String, Instant, Instant)} assigns a send the first second
+ * at or after its requested time that is within both budgets, and spreads
+ * the sends within that second.  So a batch whose slot opens for 100k SMS
+ * is sent at the budgeted rate from the slot start, rather than all at once.
+ *
+ * Each budget also keeps the runs of consecutive seconds that it has full,
+ * so that finding the first second with room skips a full stretch in one
+ * lookup.  A reservation thus costs O(log n) in the reserved seconds, also
+ * when a busy slot is full and the send spills past it.
+ *
+ * A rate of 0 means no limit.  When both are 0 the shaper is disabled and
+ * returns the requested times.  Reservations are kept in memory per node,
+ * so the budgets apply per node.  {@link #release(String, Instant)} frees
+ * the reservation of a send that will not happen, and after a restart
+ * {@link #restore(String, Instant)} rebuilds those of the scheduled sends.
+ * Reservations for seconds past are dropped.
+ *
+ * {@link #forecast(String, Instant, Instant, int)} reports the reserved
+ * sends and the budget per time bucket, in total or for a client.
+ *
+ * @see DueTimePlanner
+ *
+ * @author zwets
+ */
+public class SendRateShaper {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SendRateShaper.class);
+
+    /* Purge the seconds past after this many reservations. */
+    private static final int PURGE_INTERVAL = 1000;
+
+    private final int globalRate;
+    private final int defaultClientRate;
+    private final Map<String, Integer> clientRates;
+    private final boolean enabled;
+
+    /* The sends reserved per epoch second, in total and per budgeted client. */
+    private final Budget global;
+    private final Map<String, Budget> clientBudgets = new HashMap<String, Budget>();
+
+    private int sincePurge = 0;
+
+    /** The sends reserved in a time bucket, and the budget for it; 0 is no limit */
+    public final record Bucket(Instant start, int reserved, int capacity) {
+
+        /**
+         * The fraction of the budget that is reserved
+         * @return reserved over capacity, or 0 if there is no limit
+         */
+        public double utilization() {
+            return capacity == 0 ? 0.0 : (double) reserved / capacity;
+        }
+    }
+
+    /**
+     * Create a shaper with the given budgets
+     * @param globalRate maximum sends per second over all clients, 0 for no limit
+     * @param defaultClientRate maximum sends per second per client, 0 for no limit
+     * @param clientRates per-client overrides of the default client rate
+     */
+    public SendRateShaper(int globalRate, int defaultClientRate, Map<String, Integer> clientRates) {
+        LOG.debug("SendRateShaper created with globalRate = {}, defaultClientRate = {}, clientRates = {}",
+                globalRate, defaultClientRate, clientRates);
+        if (globalRate < 0 || defaultClientRate < 0 || clientRates.values().stream().anyMatch(r -> r < 0)) {
+            throw new IllegalArgumentException("Send rates must not be negative");
+        }
+        this.globalRate = globalRate;
+        this.defaultClientRate = defaultClientRate;
+        this.clientRates = Map.copyOf(clientRates);
+        this.global = new Budget(globalRate);
+        this.enabled = globalRate > 0 || defaultClientRate > 0 || clientRates.values().stream().anyMatch(r -> r > 0);
+    }
+
+    /**
+     * Whether any budget is set
+     * @return false if all rates are 0
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Reserve a send for a client at or after an instant and before a deadline
+     * @param clientId the client
+     * @param from the earliest instant to send
+     * @param deadline the instant by which the send must be done, or null for none
+     * @return the reserved instant, or null if the budgets have no room before the deadline
+     */
+    public synchronized Instant reserve(String clientId, Instant from, Instant deadline) {
+
+        if (!enabled) {
+            return from;
+        }
+
+        if (++sincePurge >= PURGE_INTERVAL) {
+            purge(Instant.now().getEpochSecond());
+        }
+
+        int clientRate = clientRates.getOrDefault(clientId, defaultClientRate);
+        Budget client = clientRate > 0 ? clientBudgets.computeIfAbsent(clientId, k -> new Budget(clientRate)) : null;
+        long last = deadline == null ? Long.MAX_VALUE : deadline.getEpochSecond();
+
+        // Skip the runs that either budget has full until both have room
+        long second = global.nextFree(from.getEpochSecond());
+        while (client != null && second < last && client.nextFree(second) != second) {
+            second = global.nextFree(client.nextFree(second));
+        }
+
+        if (second >= last) {
+            return null;
+        }
+
+        int globalCount = global.add(second);
+        int clientCount = client == null ? 0 : client.add(second);
+
+        // Spread within the second by the position in the tightest budget
+        long offsetMillis = clientRate > 0 && (globalRate == 0 || clientRate <= globalRate)
+                ? 1000L * clientCount / clientRate
+                : globalRate > 0 ? 1000L * globalCount / globalRate : 0;
+
+        Instant reserved = Instant.ofEpochSecond(second).plusMillis(offsetMillis);
+        return reserved.isBefore(from) ? from : reserved;
+    }
+
+    /**
+     * Release a reservation, e.g. of a send that was canceled
+     * @param clientId the client
+     * @param reserved the instant that {@link #reserve(String, Instant, Instant)} returned
+     */
+    public synchronized void release(String clientId, Instant reserved) {
+        if (enabled) {
+            long second = reserved.getEpochSecond();
+            global.remove(second);
+            Budget client = clientBudgets.get(clientId);
+            if (client != null) {
+                client.remove(second);
+            }
+        }
+    }
+
+    /**
+     * Restore a reservation made before a restart, without checking the budgets
+     * @param clientId the client
+     * @param reserved the reserved instant
+     */
+    public synchronized void restore(String clientId, Instant reserved) {
+        if (enabled) {
+            long second = reserved.getEpochSecond();
+            global.add(second);
+            int clientRate = clientRates.getOrDefault(clientId, defaultClientRate);
+            if (clientRate > 0) {
+                clientBudgets.computeIfAbsent(clientId, k -> new Budget(clientRate)).add(second);
+            }
+        }
+    }
+
+    /**
+     * Report the reservations per time bucket between two instants
+     * @param clientId the client to report, or null for the total over all clients
+     * @param from the start of the first bucket, truncated to the second
+     * @param till the instant before which the last bucket starts
+     * @param bucketSeconds the length of the buckets in seconds
+     * @return the buckets, empty if the shaper is disabled or does not budget the client
+     */
+    public synchronized List<Bucket> forecast(String clientId, Instant from, Instant till, int bucketSeconds) {
+
+        if (bucketSeconds < 1) {
+            throw new IllegalArgumentException("Bucket length must be at least one second");
+        }
+
+        List<Bucket> buckets = new ArrayList<Bucket>();
+
+        int rate = clientId == null ? globalRate : clientRates.getOrDefault(clientId, defaultClientRate);
+        Budget budget = clientId == null ? global : clientBudgets.get(clientId);
+        TreeMap<Long, Integer> counts = budget == null ? null : budget.counts;
+
+        if (enabled && (clientId == null || rate > 0)) {
+            long end = till.getEpochSecond();
+            for (long start = from.getEpochSecond(); start < end; start += bucketSeconds) {
+                int reserved = counts == null ? 0 : counts.subMap(start, start + bucketSeconds).values()
+                        .stream().mapToInt(Integer::intValue).sum();
+                buckets.add(new Bucket(Instant.ofEpochSecond(start), reserved, rate * bucketSeconds));
+            }
+        }
+
+        return buckets;
+    }
+
+    /**
+     * Parse a comma-separated list of <code>client=rate</code> pairs
+     * @param spec the list, may be null or empty
+     * @return map of client to rate
+     * @throws IllegalArgumentException if the spec is invalid
+     */
+    public static Map<String, Integer> parseRates(String spec) {
+        Map<String, Integer> rates = new HashMap<String, Integer>();
+        if (StringUtils.isNotBlank(spec)) {
+            for (String pair : spec.split(",")) {
+                String client = StringUtils.substringBefore(pair, '=').trim();
+                try {
+                    int rate = Integer.parseInt(StringUtils.substringAfter(pair, '=').trim());
+                    if (client.isEmpty() || rate < 0) {
+                        throw new NumberFormatException();
+                    }
+                    rates.put(client, rate);
+                }
+                catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid send rate (need client=rate, rate >= 0): " + pair);
+                }
+            }
+        }
+        return rates;
+    }
+
+    /* Drop the reservations for seconds before now. */
+    private void purge(long now) {
+        sincePurge = 0;
+        global.purge(now);
+        clientBudgets.values().removeIf(budget -> {
+            budget.purge(now);
+            return budget.counts.isEmpty();
+        });
+    }
+
+    /* The sends reserved per second against one rate, and the runs of seconds it has full. */
+    private static final class Budget {
+
+        private final int rate;
+        private final TreeMap<Long, Integer> counts = new TreeMap<Long, Integer>();
+
+        /* Maximal runs of full seconds, from start to end (exclusive); the end always has room. */
+        private final TreeMap<Long, Long> fullRuns = new TreeMap<Long, Long>();
+
+        Budget(int rate) {
+            this.rate = rate;
+        }
+
+        /* The first second at or after the given one that has room. */
+        long nextFree(long second) {
+            Map.Entry<Long, Long> run = fullRuns.floorEntry(second);
+            return run != null && second < run.getValue() ? run.getValue() : second;
+        }
+
+        /* Reserve a send in a second, returning the count before it. */
+        int add(long second) {
+            int count = counts.merge(second, 1, Integer::sum);
+            if (count == rate) {
+                markFull(second);
+            }
+            return count - 1;
+        }
+
+        /* Release a send in a second, if it has any. */
+        void remove(long second) {
+            Integer count = counts.get(second);
+            if (count != null) {
+                if (count == 1) {
+                    counts.remove(second);
+                }
+                else {
+                    counts.put(second, count - 1);
+                }
+                if (count == rate) {
+                    markFree(second);
+                }
+            }
+        }
+
+        /* Add the second to the runs, joining the runs that end at and start after it. */
+        private void markFull(long second) {
+            long start = second;
+            long end = second + 1;
+            Map.Entry<Long, Long> before = fullRuns.floorEntry(second);
+            if (before != null && before.getValue() == second) {
+                start = before.getKey();
+            }
+            Long after = fullRuns.remove(end);
+            if (after != null) {
+                end = after;
+            }
+            fullRuns.put(start, end);
+        }
+
+        /* Split the second off the run that holds it. */
+        private void markFree(long second) {
+            Map.Entry<Long, Long> run = fullRuns.floorEntry(second);
+            if (run != null && second < run.getValue()) {
+                fullRuns.remove(run.getKey());
+                if (run.getKey() < second) {
+                    fullRuns.put(run.getKey(), second);
+                }
+                if (second + 1 < run.getValue()) {
+                    fullRuns.put(second + 1, run.getValue());
+                }
+            }
+        }
+
+        void purge(long now) {
+            counts.headMap(now).clear();
+            fullRuns.headMap(now).values().removeIf(end -> end <= now);
+        }
+    }
+}
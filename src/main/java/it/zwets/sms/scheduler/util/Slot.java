@@ -1,14 +1,9 @@
 package it.zwets.sms.scheduler.util;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.time.Instant;
-import java.time.format.DateTimeFormatter;
-import java.time.temporal.ChronoField;
 import java.util.Date;
-import java.util.Scanner;
-
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
 * Slot is a time window in a schedule.
@@ -113,19 +108,9 @@ public class Slot implements Serializable {
      * @return a Slot or throws RuntimeException
      */
     public static Slot parse(String str) {
-        try (Scanner scanner = new Scanner(str)) {
-            if (str.contains("/")) {
-                scanner.useDelimiter("/");
-                return new Slot(isoToLong(scanner.next()), isoToLong(scanner.next()));
-            }
-            else if (str.matches("^\\d+-\\d+$")) {
-                scanner.useDelimiter("-");
-                return new Slot(scanner.nextLong(), scanner.nextLong());
-            }
-            else {
-                throw new IllegalArgumentException("Not a recognised Slot format: %s".formatted(str));
-            }
-        }
+        long[] pair = new long[2];
+        ScheduleParser.parseSlot(str, 0, str.length(), pair, 0);
+        return new Slot(pair[0], pair[1]);
     }
     
     /**
@@ -134,10 +119,9 @@ public class Slot implements Serializable {
      */
     public String toJson() {
         try {
-            ObjectMapper mapper = new ObjectMapper();
-            return mapper.writeValueAsString(this);
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException("Failed to convert Slot to Json");
+            return ScheduleJson.writeSlot(from, till);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to convert Slot to Json", e);
         }
     }
 
@@ -156,20 +140,10 @@ public class Slot implements Serializable {
      */
     public static Slot parseJson(String json) {
         try {
-            ObjectMapper mapper = new ObjectMapper();
-            return mapper.readValue(json, Slot.class);
-        } catch (JsonProcessingException e) {
-            e.printStackTrace();
+            long[] pair = ScheduleJson.readSlot(json);
+            return new Slot(pair[0], pair[1]);
+        } catch (IOException e) {
             throw new RuntimeException("Failed to parse valid Slot from JSON", e);
         }
     }
-    
-    /**
-     * Convenience for converting an iso date time with offset to seconds since epoch
-     * @param iso string value
-     * @return seconds since the epoch
-     */
-    static long isoToLong(String iso) {
-        return DateTimeFormatter.ISO_OFFSET_DATE_TIME.parse(iso, t -> t.getLong(ChronoField.INSTANT_SECONDS));
-    }
 }
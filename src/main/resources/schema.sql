@@ -0,0 +1,85 @@
+-- Application tables (the Flowable engines manage their own)
+
+CREATE TABLE IF NOT EXISTS sms_blocked_target (
+    client_id VARCHAR(255) NOT NULL,
+    target_id VARCHAR(255) NOT NULL,
+    blocked_at TIMESTAMP NOT NULL,
+    PRIMARY KEY (client_id, target_id)
+);
+
+-- Status projection of the smsSchedulerProcess instances, maintained by the
+-- SmsStatusProjector so that status queries need not join the variable tables
+
+CREATE TABLE IF NOT EXISTS sms_status (
+    id VARCHAR(64) NOT NULL,
+    client_id VARCHAR(255),
+    batch_id VARCHAR(255),
+    client_key VARCHAR(255),
+    target_id VARCHAR(255),
+    status VARCHAR(32),
+    due_time TIMESTAMP,
+    deadline VARCHAR(40),
+    started TIMESTAMP NOT NULL,
+    ended TIMESTAMP,
+    retries INT NOT NULL DEFAULT -1,
+    user_id VARCHAR(255),
+    PRIMARY KEY (id)
+);
+
+CREATE INDEX IF NOT EXISTS sms_status_client ON sms_status (client_id, started, id);
+CREATE INDEX IF NOT EXISTS sms_status_batch ON sms_status (client_id, batch_id, started, id);
+CREATE INDEX IF NOT EXISTS sms_status_key ON sms_status (client_id, client_key, started, id);
+CREATE INDEX IF NOT EXISTS sms_status_target ON sms_status (client_id, target_id, started, id);
+CREATE INDEX IF NOT EXISTS sms_status_due ON sms_status (status, due_time);
+
+-- Markers of one-off operations on the status projection, such as its backfill
+
+CREATE TABLE IF NOT EXISTS sms_status_marker (
+    name VARCHAR(64) NOT NULL,
+    created TIMESTAMP NOT NULL,
+    PRIMARY KEY (name)
+);
+
+-- Payloads of the SMS, referenced by the payloadId process variable, keyed
+-- by their SHA-256 and stored deflated, with a count of their references
+
+CREATE TABLE IF NOT EXISTS sms_payload (
+    id VARCHAR(64) NOT NULL,
+    data BYTEA NOT NULL,
+    refs INT NOT NULL,
+    PRIMARY KEY (id)
+);
+
+-- Index of the client keys, when these are configured to be unique per client
+
+CREATE TABLE IF NOT EXISTS sms_client_key (
+    client_id VARCHAR(255) NOT NULL,
+    client_key VARCHAR(255) NOT NULL,
+    instance_id VARCHAR(64) NOT NULL,
+    PRIMARY KEY (client_id, client_key)
+);
+
+CREATE INDEX IF NOT EXISTS sms_client_key_instance ON sms_client_key (instance_id);
+
+-- Bulk cancel jobs, with their progress and the point to resume from, and
+-- the node that runs them while its lease lasts
+
+CREATE TABLE IF NOT EXISTS sms_cancel_job (
+    id VARCHAR(64) NOT NULL,
+    client_id VARCHAR(255) NOT NULL,
+    scope VARCHAR(16) NOT NULL,
+    scope_value VARCHAR(255),
+    state VARCHAR(16) NOT NULL,
+    matched INT NOT NULL,
+    canceled INT NOT NULL,
+    finished INT NOT NULL,
+    failed INT NOT NULL,
+    last_started TIMESTAMP,
+    last_id VARCHAR(64),
+    created TIMESTAMP NOT NULL,
+    updated TIMESTAMP NOT NULL,
+    error VARCHAR(1000),
+    lease_owner VARCHAR(64),
+    lease_until TIMESTAMP,
+    PRIMARY KEY (id)
+);
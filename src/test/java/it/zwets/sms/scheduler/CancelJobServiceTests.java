@@ -0,0 +1,141 @@
+package it.zwets.sms.scheduler;
+
+import static it.zwets.sms.scheduler.SmsSchedulerConfiguration.Constants.SMS_STATUS_CANCELED;
+import static it.zwets.sms.scheduler.SmsSchedulerConfiguration.Constants.SMS_STATUS_SCHEDULED;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+
+import org.flowable.engine.RuntimeService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import it.zwets.sms.scheduler.CancelJobService.CancelJob;
+import it.zwets.sms.scheduler.CancelJobService.Scope;
+import it.zwets.sms.scheduler.SmsSchedulerConfiguration.Constants;
+import it.zwets.sms.scheduler.store.CancelJobStore;
+import it.zwets.sms.scheduler.util.Scheduler;
+import it.zwets.sms.scheduler.util.Slot;
+
+@SpringBootTest
+class CancelJobServiceTests {
+
+    private static final String CLIENT = "cancel-job-client";
+    private static final String BATCH = "cancel-job-batch";
+
+    @Autowired
+    private CancelJobService service;
+
+    @Autowired
+    private SmsSchedulerService schedulerService;
+
+    @Autowired
+    private RuntimeService runtimeService;
+
+    @Autowired
+    private CancelJobStore jobStore;
+
+    @AfterEach
+    void afterEach() {
+        schedulerService.deleteAllForClient(CLIENT);
+    }
+
+    @Test
+    void testRunCounts() {
+        String id0 = schedulerService.scheduleSms(CLIENT, BATCH, null, null, scheduleIn(5), "testRunCounts0").id();
+        String id1 = schedulerService.scheduleSms(CLIENT, BATCH, null, null, scheduleIn(5), "testRunCounts1").id();
+        String id2 = schedulerService.scheduleSms(CLIENT, null, null, null, scheduleIn(5), "testRunCounts2").id();
+        schedulerService.cancelSms(id1);
+
+        CancelJob job = service.run(CLIENT, Scope.BATCH, BATCH);
+
+        assertEquals(CancelJobStore.STATE_DONE, job.state());
+        assertEquals(2, job.matched());
+        assertEquals(1, job.canceled());
+        assertEquals(1, job.finished());
+        assertEquals(0, job.failed());
+        assertEquals(SMS_STATUS_CANCELED, schedulerService.getSmsStatus(id0).status());
+        assertEquals(SMS_STATUS_SCHEDULED, schedulerService.getSmsStatus(id2).status());
+    }
+
+    @Test
+    void testSubmit() throws InterruptedException {
+        String id = schedulerService.scheduleSms(CLIENT, null, null, null, scheduleIn(5), "testSubmit").id();
+
+        CancelJob job = service.submit(CLIENT, Scope.CLIENT, null);
+        assertNotNull(job);
+
+        for (int i = 0; i < 50 && !CancelJobStore.STATE_DONE.equals(job.state()); ++i) {
+            Thread.sleep(100);
+            job = service.getJob(CLIENT, job.id());
+        }
+
+        assertEquals(CancelJobStore.STATE_DONE, job.state());
+        assertEquals(1, job.canceled());
+        assertEquals(SMS_STATUS_CANCELED, schedulerService.getSmsStatus(id).status());
+    }
+
+    @Test
+    void testCancelBatchProcess() throws InterruptedException {
+        String id = schedulerService.scheduleSms(CLIENT, BATCH, null, null, scheduleIn(5), "testCancelBatchProcess").id();
+
+        runtimeService.startProcessInstanceByKey(Constants.CANCEL_BATCH_PROCESS_NAME,
+                Map.of(Constants.VAR_CLIENT_ID, CLIENT, Constants.VAR_BATCH_ID, BATCH));
+
+        for (int i = 0; i < 50 && !SMS_STATUS_CANCELED.equals(schedulerService.getSmsStatus(id).status()); ++i) {
+            Thread.sleep(100);
+        }
+
+        assertEquals(SMS_STATUS_CANCELED, schedulerService.getSmsStatus(id).status());
+    }
+
+    @Test
+    void testResumeOnlyExpiredLease() throws InterruptedException {
+        String id = schedulerService.scheduleSms(CLIENT, BATCH, null, null, scheduleIn(5), "testResumeOnlyExpiredLease").id();
+
+        // A job that another node is running
+        String jobId = UUID.randomUUID().toString();
+        jobStore.add(jobId, CLIENT, Scope.BATCH.name(), BATCH, Instant.now());
+        assertTrue(jobStore.claim(jobId, "other-node", Instant.now(), Instant.now().plusSeconds(3600)));
+
+        service.resumeJobs();
+        Thread.sleep(500);
+        assertEquals(CancelJobStore.STATE_QUEUED, service.getJob(CLIENT, jobId).state());
+        assertEquals(SMS_STATUS_SCHEDULED, schedulerService.getSmsStatus(id).status());
+
+        // The other node stopped and its lease expired
+        assertTrue(jobStore.claim(jobId, "other-node", Instant.now(), Instant.now().minusSeconds(1)));
+
+        service.resumeExpiredJobs();
+        CancelJob job = service.getJob(CLIENT, jobId);
+        for (int i = 0; i < 50 && !CancelJobStore.STATE_DONE.equals(job.state()); ++i) {
+            Thread.sleep(100);
+            job = service.getJob(CLIENT, jobId);
+        }
+
+        assertEquals(CancelJobStore.STATE_DONE, job.state());
+        assertEquals(1, job.canceled());
+        assertEquals(SMS_STATUS_CANCELED, schedulerService.getSmsStatus(id).status());
+    }
+
+    @Test
+    void testJobOfOtherClient() {
+        CancelJob job = service.run(CLIENT, Scope.TARGET, "no-such-target");
+        assertEquals(0, job.matched());
+        assertNull(service.getJob("not-" + CLIENT, job.id()));
+    }
+
+    @Test
+    void testValueRequired() {
+        assertThrows(IllegalArgumentException.class, () -> service.run(CLIENT, Scope.BATCH, null));
+    }
+
+    private String scheduleIn(int seconds) {
+        Instant due = Instant.now().plusSeconds(seconds);
+        return new Scheduler(new Slot[] { new Slot(due.getEpochSecond(), due.plusSeconds(3).getEpochSecond()) }).toString();
+    }
+}
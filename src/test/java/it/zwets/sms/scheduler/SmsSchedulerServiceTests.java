@@ -5,13 +5,17 @@ import static it.zwets.sms.scheduler.SmsSchedulerConfiguration.Constants.SMS_STA
 import static it.zwets.sms.scheduler.SmsSchedulerConfiguration.Constants.SMS_STATUS_NEW;
 import static it.zwets.sms.scheduler.SmsSchedulerConfiguration.Constants.SMS_STATUS_SCHEDULED;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.time.Instant;
+import java.util.HashSet;
+import java.util.Set;
 
+import org.flowable.engine.ProcessEngine;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
@@ -19,7 +23,13 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import it.zwets.sms.scheduler.SmsSchedulerConfiguration.Constants;
 import it.zwets.sms.scheduler.SmsSchedulerService.SmsStatus;
+import it.zwets.sms.scheduler.SmsSchedulerService.StatusPage;
+import it.zwets.sms.scheduler.store.PayloadStore;
 import it.zwets.sms.scheduler.util.Scheduler;
 import it.zwets.sms.scheduler.util.Slot;
 
@@ -33,6 +43,15 @@ class SmsSchedulerServiceTests {
     
     @Autowired
     private SmsSchedulerService service;
+
+    @Autowired
+    private ProcessEngine processEngine;
+
+    @Autowired
+    private PayloadStore payloadStore;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
     
     @AfterEach
     void afterEach() {
@@ -142,6 +161,78 @@ class SmsSchedulerServiceTests {
         assertNull(service.getSmsStatus(id));
     }
 
+    @Test
+    void testStatusPages() {
+        Set<String> ids = new HashSet<String>();
+        for (int i = 0; i < 7; ++i) {
+            ids.add(service.scheduleSms(CLIENT, "paged", null, null, scheduleIn(10), "testStatusPages" + i).id());
+        }
+        service.scheduleSms(NOT_CLIENT, "paged", null, null, scheduleIn(10), "testStatusPagesOther");
+
+        Set<String> seen = new HashSet<String>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            StatusPage page = service.getStatusPageByBatch(CLIENT, "paged", cursor, 3);
+            assertTrue(page.items().size() <= 3);
+            page.items().forEach(s -> assertTrue(seen.add(s.id()), "duplicate in pages: " + s.id()));
+            cursor = page.next();
+            ++pages;
+        } while (cursor != null);
+
+        assertEquals(3, pages);
+        assertEquals(ids, seen);
+        assertEquals(7, service.getStatusPage(CLIENT, null, 100).items().size());
+        assertNull(service.getStatusPage(CLIENT, null, 7).next());
+        assertThrows(IllegalArgumentException.class, () -> service.getStatusPage(CLIENT, "bogus", 10));
+    }
+
+    @Test
+    void testStatusMatchesHistory() {
+        String id = service.scheduleSms(CLIENT, "batch", "key", "target", scheduleIn(5), "testStatusMatchesHistory").id();
+        service.cancelSms(id);
+
+        SmsStatus projected = service.getSmsStatus(id);
+        SmsStatus historic = service.rowToSmsStatus(SmsSchedulerService.hpiToRow(processEngine.getHistoryService()
+                .createHistoricProcessInstanceQuery()
+                .processInstanceId(id)
+                .includeProcessVariables()
+                .singleResult()));
+
+        assertEquals(historic, projected);
+        assertEquals(SMS_STATUS_CANCELED, projected.status());
+        assertNotNull(projected.ended());
+        assertNotNull(projected.due());
+    }
+
+    @Test
+    void testPayloadNotInVariables() {
+        String id = service.scheduleSms(CLIENT, null, null, null, scheduleIn(5), "testPayloadNotInVariables").id();
+
+        var vars = processEngine.getRuntimeService().getVariables(id);
+        assertFalse(vars.containsKey(Constants.VAR_PAYLOAD));
+        String payloadId = (String) vars.get(Constants.VAR_PAYLOAD_ID);
+        assertEquals("testPayloadNotInVariables", payloadStore.get(payloadId));
+
+        service.deleteInstance(id);
+        assertNull(payloadStore.get(payloadId));
+    }
+
+    @Test
+    void testPayloadDeduplicated() {
+        String id1 = service.scheduleSms(CLIENT, null, null, null, scheduleIn(5), "testPayloadDeduplicated").id();
+        String id2 = service.scheduleSms(CLIENT, null, null, null, scheduleIn(5), "testPayloadDeduplicated").id();
+
+        var runtimeService = processEngine.getRuntimeService();
+        String payloadId = (String) runtimeService.getVariable(id1, Constants.VAR_PAYLOAD_ID);
+        assertEquals(payloadId, runtimeService.getVariable(id2, Constants.VAR_PAYLOAD_ID));
+
+        service.deleteInstance(id1);
+        assertEquals("testPayloadDeduplicated", payloadStore.get(payloadId));
+        service.deleteInstance(id2);
+        assertNull(payloadStore.get(payloadId));
+    }
+
     @Test
     void testCancelSms() {
         SmsStatus s = service.scheduleSms(CLIENT, null, null, null, scheduleIn(5), "testCancelSms");
@@ -159,6 +250,18 @@ class SmsSchedulerServiceTests {
         assertNull(service.getSmsStatus(id));
     }
 
+    @Test
+    void testStatusMetrics() {
+        double scheduled = statusCount(SMS_STATUS_SCHEDULED);
+        double canceled = statusCount(SMS_STATUS_CANCELED);
+
+        String id = service.scheduleSms(CLIENT, null, null, null, scheduleIn(5), "testStatusMetrics").id();
+        service.cancelSms(id);
+
+        assertEquals(scheduled + 1, statusCount(SMS_STATUS_SCHEDULED));
+        assertEquals(canceled + 1, statusCount(SMS_STATUS_CANCELED));
+    }
+
     @Test
     void testCancelBatch() {
         
@@ -311,6 +414,12 @@ class SmsSchedulerServiceTests {
         
         return new Scheduler(new Slot[] { new Slot(due.getEpochSecond(), till.getEpochSecond()) }).toString();
     }
+
+    /* Return the count of the sms.status counter for CLIENT and status, 0 if it was not registered. */
+    private double statusCount(String status) {
+        Counter counter = meterRegistry.find("sms.status").tag("client", CLIENT).tag("status", status).counter();
+        return counter == null ? 0.0 : counter.count();
+    }
     
     private void waitForAsync(double seconds) {
         LOG.debug("waiting for job executor {}s", seconds);
@@ -0,0 +1,113 @@
+package it.zwets.sms.scheduler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+import java.util.Map;
+
+import org.flowable.engine.RuntimeService;
+import org.flowable.engine.runtime.ProcessInstance;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import it.zwets.sms.scheduler.SmsSchedulerConfiguration.Constants;
+import it.zwets.sms.scheduler.SmsSchedulerService.SmsStatus;
+import it.zwets.sms.scheduler.util.Scheduler;
+import it.zwets.sms.scheduler.util.Slot;
+
+@SpringBootTest(properties = "sms.scheduler.config.unique-client-keys=true")
+class SmsSchedulerServiceUniqueKeyTests {
+
+    private static String CLIENT = "test-unique";
+    private static String NOT_CLIENT = "not-test-unique";
+
+    @Autowired
+    private SmsSchedulerService service;
+
+    @Autowired
+    private RuntimeService runtimeService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @AfterEach
+    void afterEach() {
+        service.deleteAllForClient(CLIENT);
+        service.deleteAllForClient(NOT_CLIENT);
+    }
+
+    @Test
+    void testDuplicateKeyReturnsExisting() {
+        SmsStatus s1 = service.scheduleSms(CLIENT, null, "key", null, scheduleIn(10), "testDuplicateKey1");
+        SmsStatus s2 = service.scheduleSms(CLIENT, null, "key", null, scheduleIn(10), "testDuplicateKey2");
+
+        assertEquals(s1.id(), s2.id());
+        assertEquals(1, service.getStatusListByClientKey(CLIENT, "key").size());
+        assertEquals(s1.id(), service.getSmsStatusByUniqueKey(CLIENT, "key").id());
+    }
+
+    @Test
+    void testDuplicateKeyByEventIsIgnored() {
+        SmsStatus s1 = service.scheduleSms(CLIENT, null, "key", null, scheduleIn(10), "testDuplicateKeyByEvent1");
+
+        // As started by a schedule event, which passes the payload rather than its id
+        ProcessInstance pi = runtimeService.startProcessInstanceByKey(Constants.SMS_SCHEDULER_PROCESS_NAME, Map.of(
+                Constants.VAR_CLIENT_ID, CLIENT,
+                Constants.VAR_CLIENT_KEY, "key",
+                Constants.VAR_SCHEDULE, scheduleIn(10),
+                Constants.VAR_PAYLOAD, "testDuplicateKeyByEvent2"));
+
+        assertTrue(pi.isEnded());
+        assertEquals(Constants.SMS_STATUS_INVALID, service.getSmsStatus(pi.getId()).status());
+        assertEquals(s1.id(), service.getSmsStatusByUniqueKey(CLIENT, "key").id());
+    }
+
+    @Test
+    void testKeysArePerClient() {
+        SmsStatus s1 = service.scheduleSms(CLIENT, null, "key", null, scheduleIn(10), "testKeysArePerClient1");
+        SmsStatus s2 = service.scheduleSms(NOT_CLIENT, null, "key", null, scheduleIn(10), "testKeysArePerClient2");
+
+        assertNotEquals(s1.id(), s2.id());
+    }
+
+    @Test
+    void testNullKeysNotUnique() {
+        SmsStatus s1 = service.scheduleSms(CLIENT, null, null, null, scheduleIn(10), "testNullKeysNotUnique1");
+        SmsStatus s2 = service.scheduleSms(CLIENT, null, null, null, scheduleIn(10), "testNullKeysNotUnique2");
+
+        assertNotEquals(s1.id(), s2.id());
+    }
+
+    @Test
+    void testKeyFreedOnDelete() {
+        SmsStatus s1 = service.scheduleSms(CLIENT, null, "key", null, scheduleIn(10), "testKeyFreedOnDelete1");
+        service.deleteInstance(s1.id());
+        assertNull(service.getSmsStatusByUniqueKey(CLIENT, "key"));
+
+        SmsStatus s2 = service.scheduleSms(CLIENT, null, "key", null, scheduleIn(10), "testKeyFreedOnDelete2");
+        assertNotEquals(s1.id(), s2.id());
+    }
+
+    @Test
+    void testStaleKeyIsFree() {
+        // As left by an instance deleted while keys were not unique
+        jdbcTemplate.update("INSERT INTO sms_client_key (client_id, client_key, instance_id) VALUES (?, ?, ?)",
+                CLIENT, "stale-key", "deleted-instance");
+
+        SmsStatus s = service.scheduleSms(CLIENT, null, "stale-key", null, scheduleIn(10), "testStaleKeyIsFree");
+        assertNotEquals("deleted-instance", s.id());
+        assertEquals(s.id(), service.getSmsStatusByUniqueKey(CLIENT, "stale-key").id());
+    }
+
+    private String scheduleIn(int seconds) {
+        Instant due = Instant.now().plusSeconds(seconds);
+        return new Scheduler(new Slot[] { new Slot(due.getEpochSecond(), due.getEpochSecond() + 3) }).toString();
+    }
+}
@@ -2,9 +2,19 @@ package it.zwets.sms.scheduler;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.stream.IntStream;
+
+import org.flowable.engine.ProcessEngine;
+import org.flowable.engine.RuntimeService;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import it.zwets.sms.scheduler.store.BlockedTargetStore;
 
 @SpringBootTest
 class TargetBlockerServiceTests {
@@ -15,6 +25,18 @@ class TargetBlockerServiceTests {
     @Autowired
     private TargetBlockerService service;
 
+    @Autowired
+    private RuntimeService runtimeService;
+
+    @Autowired
+    private ProcessEngine processEngine;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private SmsSchedulerService smsSchedulerService;
+
     @Test
     void testBasics() {
         service.blockTarget(CLIENT, TARGET);
@@ -41,4 +63,101 @@ class TargetBlockerServiceTests {
         assertFalse(service.isTargetBlocked(CLIENT, TARGET));
     }
 
+    @Test
+    void testProcessStartIndexed() {
+        runtimeService.startProcessInstanceByKey(SmsSchedulerConfiguration.Constants.BLOCK_TARGET_PROCESS_NAME,
+                Map.of(SmsSchedulerConfiguration.Constants.VAR_CLIENT_ID, CLIENT,
+                       SmsSchedulerConfiguration.Constants.VAR_TARGET_ID, "direct-" + TARGET));
+        assertTrue(service.isTargetBlocked(CLIENT, "direct-" + TARGET));
+        service.unblockTarget(CLIENT, "direct-" + TARGET);
+        assertFalse(service.isTargetBlocked(CLIENT, "direct-" + TARGET));
+    }
+
+    @Test
+    void testCheckIndex() {
+        service.blockTarget(CLIENT, TARGET);
+        assertEquals(0, service.checkIndex());
+        assertTrue(service.isTargetBlocked(CLIENT, TARGET));
+        service.unblockTarget(CLIENT, TARGET);
+        assertEquals(0, service.checkIndex());
+        assertFalse(service.isTargetBlocked(CLIENT, TARGET));
+    }
+
+    @Test
+    void testGetBlockedTargets() {
+        service.blockTarget("list-" + CLIENT, "b-" + TARGET);
+        service.blockTarget("list-" + CLIENT, "a-" + TARGET);
+        service.blockTarget("list-" + CLIENT, "a-" + TARGET);
+        assertEquals("a-" + TARGET + "\nb-" + TARGET + "\n", service.getBlockedTargets("list-" + CLIENT));
+        service.unblockTarget("list-" + CLIENT, "a-" + TARGET);
+        service.unblockTarget("list-" + CLIENT, "b-" + TARGET);
+        assertEquals("\n", service.getBlockedTargets("list-" + CLIENT));
+    }
+
+    @Test
+    void testBlockDuringCheckIndex() {
+        String target = "scan-" + TARGET;
+        TargetBlockerService[] blocker = new TargetBlockerService[1];
+        boolean[] armed = { false };
+
+        // A store that blocks the target just after the rebuild's scan has passed it
+        BlockedTargetStore store = new BlockedTargetStore(jdbcTemplate) {
+            @Override
+            public void forEach(BiConsumer<String, String> consumer) {
+                super.forEach(consumer);
+                if (armed[0]) {
+                    armed[0] = false;
+                    blocker[0].blockTarget(CLIENT, target);
+                }
+            }
+        };
+
+        blocker[0] = new TargetBlockerService(processEngine, store, smsSchedulerService);
+        assertFalse(blocker[0].isTargetBlocked(CLIENT, target));
+
+        armed[0] = true;
+        blocker[0].checkIndex();
+        assertFalse(armed[0]);
+        assertTrue(blocker[0].isTargetBlocked(CLIENT, target));
+
+        blocker[0].unblockTarget(CLIENT, target);
+        assertFalse(blocker[0].isTargetBlocked(CLIENT, target));
+    }
+
+    @Test
+    void testBlockDuringGrow() {
+        String client = "grow-" + CLIENT;
+        String target = "grow-" + TARGET;
+        TargetBlockerService[] blocker = new TargetBlockerService[1];
+        boolean[] armed = { false };
+
+        // A store that blocks the target just after the grow has loaded the blocks
+        BlockedTargetStore store = new BlockedTargetStore(jdbcTemplate) {
+            @Override
+            public List<String> getTargets(String clientId) {
+                List<String> targets = super.getTargets(clientId);
+                if (armed[0]) {
+                    armed[0] = false;
+                    blocker[0].blockTarget(client, target);
+                }
+                return targets;
+            }
+        };
+
+        blocker[0] = new TargetBlockerService(processEngine, store, smsSchedulerService);
+        assertFalse(blocker[0].isTargetBlocked(client, target));
+
+        // More blocks than the initial filter holds, so it grows
+        List<String> targets = IntStream.range(0, 3000).mapToObj(i -> "bulk-" + i).toList();
+        armed[0] = true;
+        blocker[0].blockTargets(client, targets.iterator());
+        assertFalse(armed[0]);
+
+        assertTrue(blocker[0].isTargetBlocked(client, target));
+        assertTrue(targets.stream().allMatch(t -> blocker[0].isTargetBlocked(client, t)));
+
+        blocker[0].unblockTargets(client, targets.iterator());
+        blocker[0].unblockTarget(client, target);
+        assertFalse(blocker[0].isTargetBlocked(client, target));
+    }
 }
@@ -0,0 +1,131 @@
+package it.zwets.sms.scheduler.delegate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import it.zwets.sms.scheduler.SmsSchedulerService;
+import it.zwets.sms.scheduler.diag.SendForecastEndpoint;
+import it.zwets.sms.scheduler.util.DueTimePlanner;
+import it.zwets.sms.scheduler.util.Scheduler;
+import it.zwets.sms.scheduler.util.SendRateShaper;
+import it.zwets.sms.scheduler.util.Slot;
+
+@SpringBootTest(properties = "sms.scheduler.config.client-send-rate=100")
+class ReservationTrackerTests {
+
+    private static final String CLIENT = "reservation-client";
+
+    @Autowired
+    private SmsSchedulerService schedulerService;
+
+    @Autowired
+    private DueTimePlanner planner;
+
+    @Autowired
+    private ReservationTracker tracker;
+
+    @Autowired
+    private SendForecastEndpoint forecastEndpoint;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @AfterEach
+    void afterEach() {
+        schedulerService.deleteAllForClient(CLIENT);
+    }
+
+    @Test
+    void testTriageReservesAndCancelReleases() {
+        Instant due = Instant.now().plusSeconds(3600).truncatedTo(ChronoUnit.SECONDS);
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 3; ++i) {
+            ids.add(schedulerService.scheduleSms(CLIENT, null, null, null, scheduleAt(due), "testTriageReserves" + i).id());
+        }
+
+        // Triage, the tracker and the forecast endpoint share the planner
+        assertEquals(3, reserved(due, due.plusSeconds(3600)));
+        assertEquals(3, forecastEndpoint.forecast(CLIENT, 120, 7200).buckets().get(0).planned());
+
+        schedulerService.cancelSms(ids.get(0));
+        assertEquals(2, reserved(due, due.plusSeconds(3600)));
+    }
+
+    @Test
+    void testRestoreScheduled() {
+        Instant due = Instant.now().plusSeconds(7200).truncatedTo(ChronoUnit.SECONDS);
+        List<Instant> planned = new ArrayList<Instant>();
+        for (int i = 0; i < 3; ++i) {
+            schedulerService.scheduleSms(CLIENT, null, null, null, scheduleAt(due), "testRestoreScheduled" + i);
+        }
+        for (SendRateShaper.Bucket bucket : planner.forecast(CLIENT, due, due.plusSeconds(3600), 1)) {
+            for (int i = 0; i < bucket.reserved(); ++i) {
+                planned.add(bucket.start());
+            }
+        }
+        assertEquals(3, planned.size());
+
+        // As after a restart, when the planner has lost its reservations
+        planned.forEach(t -> planner.release(CLIENT, t));
+        assertEquals(0, reserved(due, due.plusSeconds(3600)));
+
+        tracker.restoreReservations();
+        assertEquals(3, reserved(due, due.plusSeconds(3600)));
+    }
+
+    @Test
+    void testReleaseOnRollback() {
+        Instant due = Instant.now().plusSeconds(60).truncatedTo(ChronoUnit.SECONDS);
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+
+        transaction.executeWithoutResult(status -> {
+            tracker.releaseOnRollback(CLIENT, planner.plan(CLIENT, null, due, null).dueTime());
+        });
+        assertEquals(1, reserved(due, due.plusSeconds(1)));
+
+        transaction.executeWithoutResult(status -> {
+            tracker.releaseOnRollback(CLIENT, planner.plan(CLIENT, null, due, null).dueTime());
+            status.setRollbackOnly();
+        });
+        assertEquals(1, reserved(due, due.plusSeconds(1)));
+
+        planner.release(CLIENT, due);
+    }
+
+    @Test
+    void testReleaseOnCommit() {
+        Instant due = Instant.now().plusSeconds(120).truncatedTo(ChronoUnit.SECONDS);
+        Instant planned = planner.plan(CLIENT, null, due, null).dueTime();
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+
+        transaction.executeWithoutResult(status -> {
+            tracker.releaseOnCommit(CLIENT, planned);
+            status.setRollbackOnly();
+        });
+        assertEquals(1, reserved(due, due.plusSeconds(1)));
+
+        transaction.executeWithoutResult(status -> {
+            tracker.releaseOnCommit(CLIENT, planned);
+        });
+        assertEquals(0, reserved(due, due.plusSeconds(1)));
+    }
+
+    private int reserved(Instant from, Instant till) {
+        return planner.forecast(CLIENT, from, till, (int) (till.getEpochSecond() - from.getEpochSecond())).get(0).reserved();
+    }
+
+    private static String scheduleAt(Instant due) {
+        return new Scheduler(new Slot[] { new Slot(due.getEpochSecond(), due.plusSeconds(3600).getEpochSecond()) }).toString();
+    }
+}
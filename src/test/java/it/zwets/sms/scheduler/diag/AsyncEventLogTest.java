@@ -0,0 +1,76 @@
+package it.zwets.sms.scheduler.diag;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import it.zwets.sms.scheduler.diag.AsyncEventLog.Event;
+
+class AsyncEventLogTest {
+
+    private static Event event(int i) {
+        return new Event(System.currentTimeMillis(), "def:1:1", "pi-" + i, "ex-" + i, "sendTask", "start", null);
+    }
+
+    @Test
+    void testLogsOffered() throws InterruptedException {
+        CountDownLatch logged = new CountDownLatch(3);
+        try (AsyncEventLog log = new AsyncEventLog(16, e -> logged.countDown())) {
+            for (int i = 0; i < 3; ++i) {
+                log.offer(event(i));
+            }
+            assertTrue(logged.await(5, TimeUnit.SECONDS));
+            assertEquals(0, log.getDropped());
+        }
+    }
+
+    @Test
+    void testDropsWhenFull() throws InterruptedException {
+        CountDownLatch taken = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Event> logged = new CopyOnWriteArrayList<Event>();
+
+        AsyncEventLog log = new AsyncEventLog(2, e -> {
+            taken.countDown();
+            try {
+                release.await();
+            }
+            catch (InterruptedException ex) {
+                // carry on
+            }
+            logged.add(e);
+        });
+
+        // The worker takes the first and blocks, the next two fill the queue
+        log.offer(event(0));
+        assertTrue(taken.await(5, TimeUnit.SECONDS));
+        log.offer(event(1));
+        log.offer(event(2));
+        log.offer(event(3));
+        log.offer(event(4));
+        assertEquals(2, log.getDropped());
+
+        release.countDown();
+        log.close();
+
+        assertEquals(List.of("pi-0", "pi-1", "pi-2"), logged.stream().map(Event::instanceId).toList());
+    }
+
+    @Test
+    void testCloseDrainsQueue() {
+        List<Event> logged = new CopyOnWriteArrayList<Event>();
+        AsyncEventLog log = new AsyncEventLog(100, logged::add);
+        for (int i = 0; i < 100; ++i) {
+            log.offer(event(i));
+        }
+        log.close();
+        assertEquals(100, logged.size());
+        assertEquals(0, log.getDropped());
+    }
+}
@@ -0,0 +1,69 @@
+package it.zwets.sms.scheduler.diag;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class ProcessLoggerTest {
+
+    @Test
+    void testParseEmptySampling() {
+        assertTrue(ProcessLogger.parseSampling(null).isEmpty());
+        assertTrue(ProcessLogger.parseSampling(" ").isEmpty());
+    }
+
+    @Test
+    void testParseSampling() {
+        Map<String, Double> rates = ProcessLogger.parseSampling("sendTask=1, *=0.01 ,triageTask=0");
+        assertEquals(3, rates.size());
+        assertEquals(1.0, rates.get("sendTask"));
+        assertEquals(0.01, rates.get("*"));
+        assertEquals(0.0, rates.get("triageTask"));
+    }
+
+    @Test
+    void testParseInvalidSampling() {
+        assertThrows(IllegalArgumentException.class, () -> ProcessLogger.parseSampling("sendTask"));
+        assertThrows(IllegalArgumentException.class, () -> ProcessLogger.parseSampling("sendTask=x"));
+        assertThrows(IllegalArgumentException.class, () -> ProcessLogger.parseSampling("sendTask=2"));
+        assertThrows(IllegalArgumentException.class, () -> ProcessLogger.parseSampling("=0.5"));
+    }
+
+    @Test
+    void testSampleAll() {
+        ProcessLogger logger = new ProcessLogger(null, true, false, null, null);
+        assertTrue(logger.isSampled("sendTask", instanceIn(9999)));
+    }
+
+    @Test
+    void testSampledPerInstance() {
+        ProcessLogger logger = new ProcessLogger(null, true, false, null, "sendTask=1, triageTask=0, *=0.5");
+        String in = instanceIn(4999), out = instanceIn(9999);
+
+        // The same instances are in and out of the sample at every activity with the rate
+        for (String activity : new String[] { "schedulerTimer", "recvAckRecv", "sendTimeout" }) {
+            assertTrue(logger.isSampled(activity, in));
+            assertFalse(logger.isSampled(activity, out));
+        }
+
+        assertTrue(logger.isSampled("sendTask", out));
+        assertFalse(logger.isSampled("triageTask", in));
+        assertFalse(logger.isSampled("schedulerTimer", null));
+    }
+
+    /* Return an instance id whose hash bucket (out of 10000) is at least max - 4999 and at most max. */
+    private static String instanceIn(int max) {
+        for (int i = 0; ; ++i) {
+            String id = "instance-" + i;
+            int bucket = (id.hashCode() & Integer.MAX_VALUE) % 10000;
+            if (bucket <= max && bucket > max - 5000) {
+                return id;
+            }
+        }
+    }
+}
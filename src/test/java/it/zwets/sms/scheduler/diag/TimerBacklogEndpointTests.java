@@ -0,0 +1,81 @@
+package it.zwets.sms.scheduler.diag;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import it.zwets.sms.scheduler.SmsSchedulerConfiguration.Constants;
+import it.zwets.sms.scheduler.SmsSchedulerService;
+import it.zwets.sms.scheduler.diag.TimerBacklogEndpoint.Backlog;
+import it.zwets.sms.scheduler.diag.TimerBacklogEndpoint.ClientBacklog;
+import it.zwets.sms.scheduler.store.SmsStatusStore;
+import it.zwets.sms.scheduler.store.SmsStatusStore.Overdue;
+import it.zwets.sms.scheduler.util.DateHelper;
+import it.zwets.sms.scheduler.util.Scheduler;
+import it.zwets.sms.scheduler.util.Slot;
+
+@SpringBootTest
+class TimerBacklogEndpointTests {
+
+    private static final String CLIENT = "timer-backlog-client";
+
+    @Autowired
+    private TimerBacklogEndpoint endpoint;
+
+    @Autowired
+    private SmsStatusStore statusStore;
+
+    @Autowired
+    private SmsSchedulerService schedulerService;
+
+    @Autowired
+    private DateHelper dateHelper;
+
+    @AfterEach
+    void afterEach() {
+        schedulerService.deleteAllForClient(CLIENT);
+    }
+
+    @Test
+    void testOverdue() {
+        Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        Instant oldest = now.minusSeconds(600);
+
+        String id0 = schedulerService.scheduleSms(CLIENT, null, null, null, scheduleIn(3600), "testOverdue0").id();
+        String id1 = schedulerService.scheduleSms(CLIENT, null, null, null, scheduleIn(3600), "testOverdue1").id();
+        schedulerService.scheduleSms(CLIENT, null, null, null, scheduleIn(3600), "testOverdue2");
+
+        // As if the timers of two SMS are due but did not fire
+        assertTrue(statusStore.setVariable(id0, Constants.VAR_SMS_DUETIME, oldest));
+        assertTrue(statusStore.setVariable(id1, Constants.VAR_SMS_DUETIME, now.minusSeconds(60)));
+
+        Overdue overdue = statusStore.findOverdue(now).stream()
+                .filter(o -> CLIENT.equals(o.clientId())).findFirst().orElse(null);
+        assertNotNull(overdue);
+        assertEquals(2, overdue.count());
+        assertEquals(oldest, overdue.oldest());
+
+        Backlog backlog = endpoint.backlog();
+        ClientBacklog client = backlog.clients().stream()
+                .filter(c -> CLIENT.equals(c.client())).findFirst().orElse(null);
+        assertNotNull(client);
+        assertEquals(2, client.overdue());
+        assertEquals(dateHelper.format(oldest), client.oldest());
+        assertTrue(client.lagSeconds() >= 600);
+        assertTrue(backlog.overdue() >= 2);
+        assertTrue(backlog.lagSeconds() >= client.lagSeconds());
+    }
+
+    private String scheduleIn(int seconds) {
+        Instant due = Instant.now().plusSeconds(seconds);
+        return new Scheduler(new Slot[] { new Slot(due.getEpochSecond(), due.plusSeconds(3).getEpochSecond()) }).toString();
+    }
+}
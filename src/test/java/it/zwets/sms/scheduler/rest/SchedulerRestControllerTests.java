@@ -6,6 +6,7 @@ import static it.zwets.sms.scheduler.SmsSchedulerConfiguration.Constants.SMS_STA
 import static it.zwets.sms.scheduler.SmsSchedulerConfiguration.Constants.SMS_STATUS_EXPIRED;
 import static it.zwets.sms.scheduler.SmsSchedulerConfiguration.Constants.SMS_STATUS_NEW;
 import static it.zwets.sms.scheduler.SmsSchedulerConfiguration.Constants.SMS_STATUS_SCHEDULED;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -33,7 +34,11 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -186,6 +191,31 @@ class SchedulerRestControllerTests {
         }
     }
 
+    @Test
+    public void testListPaging() {
+        for (int i = 0; i < 3; ++i) {
+            assertEquals(HttpStatus.OK, rest.POST("/schedule/test", simpleRequest(10)).getStatusCode());
+        }
+
+        ResponseEntity<String> response = rest.GET("/schedule/test?limit=2");
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(2, deserializeStatusList(response).size());
+
+        String cursor = response.getHeaders().getFirst(SchedulerRestController.NEXT_CURSOR);
+        String link = response.getHeaders().getFirst(HttpHeaders.LINK);
+        assertNotNull(cursor);
+        assertNotNull(link);
+        assertTrue(link.endsWith("; rel=\"next\""));
+        assertTrue(link.contains("cursor=" + cursor));
+
+        String next = link.substring(link.indexOf("/schedule/"), link.indexOf('>'));
+        response = rest.GET(next);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(1, deserializeStatusList(response).size());
+        assertNull(response.getHeaders().getFirst(SchedulerRestController.NEXT_CURSOR));
+        assertNull(response.getHeaders().getFirst(HttpHeaders.LINK));
+    }
+
     @Test
     public void testOmitPatchParamDoesNotCancelAll() {
 
@@ -226,7 +256,11 @@ class SchedulerRestControllerTests {
         assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
 
         response = rest.DELETE("/schedule/test/by-batch/batch1");
-        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
+        assertNotNull(response.getHeaders().getLocation());
+        JsonNode job = awaitJob(response);
+        assertEquals(1, job.get("matched").asInt());
+        assertEquals(1, job.get("canceled").asInt());
         
         response = rest.GET("/schedule/test/by-id/" + id1);
         assertEquals(HttpStatus.OK, response.getStatusCode());
@@ -323,6 +357,31 @@ class SchedulerRestControllerTests {
         assertEquals(0, deserializeBlockList(response).length);
     }
         
+    @Test
+    public void testBlockListSince() throws InterruptedException {
+        final String TARGET1 = "block-since-1";
+        final String TARGET2 = "block-since-2";
+
+        targetBlockerService.blockTarget("test", TARGET1);
+        Thread.sleep(20);
+        Instant since = Instant.now();
+        Thread.sleep(20);
+        targetBlockerService.blockTarget("test", TARGET2);
+
+        ResponseEntity<String> response = rest.GET("/block/test?since=" + since);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertArrayEquals(new String[] { TARGET2 }, deserializeBlockList(response));
+
+        response = rest.GET("/block/test");
+        assertArrayEquals(new String[] { TARGET1, TARGET2 }, deserializeBlockList(response));
+
+        response = rest.GET("/block/test?since=yesterday");
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+
+        targetBlockerService.unblockTarget("test", TARGET1);
+        targetBlockerService.unblockTarget("test", TARGET2);
+    }
+
     @Test
     public void testBlockedDoesNotSchedule() {
         final String TARGET = "block-me";
@@ -350,6 +409,118 @@ class SchedulerRestControllerTests {
         schedulerService.deleteInstance(id);
     }
         
+    @Test
+    public void testBulkBlockCancelsScheduled() {
+        final String TARGET = "bulk-block-me";
+
+        ResponseEntity<String> response = rest.POST("/schedule/test", simpleRequest("batch", "key", TARGET, 3600));
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        String id = deserializeStatus(response).id();
+
+        response = rest.POST("/block/test", "[ \"%s\", \"%s-2\", \"%s\" ]".formatted(TARGET, TARGET, TARGET));
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        JsonNode result = asJson(response);
+        assertEquals(3, result.get("received").asInt());
+        assertEquals(2, result.get("changed").asInt());
+        assertEquals(1, result.get("canceled").asInt());
+        assertTrue(targetBlockerService.isTargetBlocked("test", TARGET + "-2"));
+
+        response = rest.GET("/schedule/test/by-id/" + id);
+        assertEquals(SMS_STATUS_CANCELED, deserializeStatus(response).status());
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.TEXT_PLAIN);
+        response = rest.exchange(USERID, PASSWD, "/block/test", HttpMethod.DELETE,
+                new HttpEntity<String>(TARGET + "\n\n" + TARGET + "-2\n", headers));
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(2, asJson(response).get("changed").asInt());
+        assertFalse(targetBlockerService.isTargetBlocked("test", TARGET));
+        assertFalse(targetBlockerService.isTargetBlocked("test", TARGET + "-2"));
+
+        response = rest.POST("/block/test", "{ \"not\": \"an array\" }");
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+    }
+
+    @Test
+    void testExport() {
+        Instant start = Instant.now();
+        String id1 = deserializeStatus(rest.POST("/schedule/test", simpleRequest("export", "key1", "target1", 3600))).id();
+        String id2 = deserializeStatus(rest.POST("/schedule/test", simpleRequest("export", "key2", "target2", 3600))).id();
+        schedulerService.cancelSms(id2);
+
+        ResponseEntity<String> response = rest.GET("/schedule/test/export");
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        String[] lines = response.getBody().split("\n");
+        assertEquals(2, lines.length);
+        assertEquals(id1, deserialize(parseJson(lines[0])).id());
+        assertEquals(id2, deserialize(parseJson(lines[1])).id());
+
+        response = rest.GET("/schedule/test/export?status=" + SMS_STATUS_CANCELED + "&from=" + start);
+        lines = response.getBody().split("\n");
+        assertEquals(1, lines.length);
+        assertEquals(id2, deserialize(parseJson(lines[0])).id());
+
+        response = rest.GET("/schedule/test/export?till=" + start.minusSeconds(60));
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertTrue(StringUtils.isEmpty(response.getBody()));
+    }
+
+    @Test
+    void testPostBatch() {
+        long due = Instant.now().getEpochSecond() + 3600;
+        String schedule = new Scheduler(new Slot[] { new Slot(due, due+5) }).toString();
+        String body = "[" + String.join(",",
+                smsJson("bulk", "key0", "target0", schedule, "payload"),
+                smsJson("bulk", "key1", "target1", schedule, null),
+                smsJson("bulk", "key2", "target2", schedule, "payload")) + "]";
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        ResponseEntity<String> response = rest.exchange(USERID, PASSWD, "/schedule/test/batch", HttpMethod.POST,
+                new HttpEntity<String>(body, headers));
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        String[] lines = response.getBody().split("\n");
+        assertEquals(3, lines.length);
+
+        JsonNode r0 = parseJson(lines[0]), r1 = parseJson(lines[1]), r2 = parseJson(lines[2]);
+        assertEquals(0, r0.get("index").asInt());
+        assertEquals("key0", r0.get("status").get("key").asText());
+        assertEquals(1, r1.get("index").asInt());
+        assertTrue(r1.get("status").isNull());
+        assertFalse(r1.get("error").isNull());
+        assertEquals("key2", r2.get("status").get("key").asText());
+
+        assertEquals(2, asJson(rest.GET("/schedule/test/by-batch/bulk")).size());
+    }
+
+    @Test
+    void testPostBatchStopsAtInvalidLine() {
+        long due = Instant.now().getEpochSecond() + 3600;
+        String schedule = new Scheduler(new Slot[] { new Slot(due, due+5) }).toString();
+        String body = String.join("\n",
+                smsJson("bulk-invalid", "key0", "target0", schedule, "payload"),
+                smsJson("bulk-invalid", "key1", "target1", schedule, "payload"),
+                "{ \"batch\": \"bulk-invalid\", not json }",
+                smsJson("bulk-invalid", "key3", "target3", schedule, "payload"));
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_NDJSON);
+        ResponseEntity<String> response = rest.exchange(USERID, PASSWD, "/schedule/test/batch", HttpMethod.POST,
+                new HttpEntity<String>(body, headers));
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        String[] lines = response.getBody().split("\n");
+        assertEquals(3, lines.length);
+
+        assertEquals("key0", parseJson(lines[0]).get("status").get("key").asText());
+        assertEquals("key1", parseJson(lines[1]).get("status").get("key").asText());
+        JsonNode r2 = parseJson(lines[2]);
+        assertEquals(2, r2.get("index").asInt());
+        assertTrue(r2.get("status").isNull());
+        assertTrue(r2.get("error").asText().startsWith("Stopped at invalid request"));
+
+        assertEquals(2, asJson(rest.GET("/schedule/test/by-batch/bulk-invalid")).size());
+    }
+
     @Test
     void testImmediateWithWait() {
 
@@ -503,6 +674,22 @@ class SchedulerRestControllerTests {
         return s == null ? "null" : "\"%s\"".formatted(s);
     }
     
+    /* Polls the job returned by a bulk DELETE until it is no longer queued or running. */
+    private JsonNode awaitJob(ResponseEntity<String> accepted) {
+        String path = "/schedule/test/jobs/" + asJson(accepted).get("id").asText();
+        for (int i = 0; i < 50; ++i) {
+            ResponseEntity<String> response = rest.GET(path);
+            assertEquals(HttpStatus.OK, response.getStatusCode());
+            JsonNode job = asJson(response);
+            if (!job.get("state").asText().matches("QUEUED|RUNNING")) {
+                assertEquals("DONE", job.get("state").asText());
+                return job;
+            }
+            waitForAsync(0.1);
+        }
+        throw new AssertionError("Cancel job did not finish: " + path);
+    }
+    
     private void waitForAsync(double seconds) {
         LOG.debug("waiting for job executor {}s", seconds);
         try {
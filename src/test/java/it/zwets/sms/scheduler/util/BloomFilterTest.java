@@ -0,0 +1,55 @@
+package it.zwets.sms.scheduler.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class BloomFilterTest {
+
+    @Test
+    void testNoFalseNegatives() {
+        BloomFilter filter = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; ++i) {
+            filter.add("target-" + i);
+        }
+        for (int i = 0; i < 10000; ++i) {
+            assertTrue(filter.mightContain("target-" + i));
+        }
+    }
+
+    @Test
+    void testFalsePositiveRate() {
+        BloomFilter filter = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; ++i) {
+            filter.add("target-" + i);
+        }
+        int positives = 0;
+        for (int i = 0; i < 100000; ++i) {
+            if (filter.mightContain("other-" + i)) {
+                ++positives;
+            }
+        }
+        assertTrue(positives < 2000, "false positives: " + positives);
+        assertTrue(filter.getExpectedFpp() < 0.02);
+    }
+
+    @Test
+    void testCountAndEmpty() {
+        BloomFilter filter = new BloomFilter(100, 0.01);
+        assertFalse(filter.mightContain("x"));
+        assertEquals(0.0, filter.getExpectedFpp());
+        assertTrue(filter.add("x"));
+        assertFalse(filter.add("x"));
+        assertEquals(1, filter.getCount());
+        assertTrue(filter.getNumBits() >= 64);
+    }
+
+    @Test
+    void testInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new BloomFilter(0, 0.01));
+        assertThrows(IllegalArgumentException.class, () -> new BloomFilter(10, 1.0));
+    }
+}
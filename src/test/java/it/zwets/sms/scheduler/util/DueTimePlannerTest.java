@@ -0,0 +1,64 @@
+package it.zwets.sms.scheduler.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class DueTimePlannerTest {
+
+    private static final long START = Instant.now().plus(1, ChronoUnit.DAYS).getEpochSecond();
+
+    /* Two slots of two seconds, an hour apart. */
+    private static final Scheduler SCHEDULER = new Scheduler(new Slot[] {
+            new Slot(START, START + 2), new Slot(START + 3600, START + 3602) });
+
+    private DueTimePlanner.Plan plan(DueTimePlanner planner) {
+        Instant from = Instant.ofEpochSecond(START);
+        return planner.plan("c", SCHEDULER, from, SCHEDULER.getDeadlineInstant(from));
+    }
+
+    @Test
+    void testPlanInSlot() {
+        DueTimePlanner planner = new DueTimePlanner(new SendRateShaper(0, 1, Map.of()));
+        DueTimePlanner.Plan plan = plan(planner);
+        assertEquals(Instant.ofEpochSecond(START), plan.dueTime());
+        assertEquals(Instant.ofEpochSecond(START + 2), plan.deadline());
+        assertEquals(0, plan.spills());
+        assertEquals(Instant.ofEpochSecond(START + 1), plan(planner).dueTime());
+    }
+
+    @Test
+    void testSpillToNextSlot() {
+        DueTimePlanner planner = new DueTimePlanner(new SendRateShaper(0, 1, Map.of()));
+        plan(planner);
+        plan(planner);
+        DueTimePlanner.Plan plan = plan(planner);
+        assertEquals(Instant.ofEpochSecond(START + 3600), plan.dueTime());
+        assertEquals(Instant.ofEpochSecond(START + 3602), plan.deadline());
+        assertEquals(1, plan.spills());
+        plan(planner);
+        assertNull(plan(planner));
+    }
+
+    @Test
+    void testForecast() {
+        DueTimePlanner planner = new DueTimePlanner(new SendRateShaper(4, 0, Map.of()));
+        for (int i = 0; i < 6; ++i) {
+            plan(planner);
+        }
+        List<SendRateShaper.Bucket> buckets = planner.forecast(null,
+                Instant.ofEpochSecond(START), Instant.ofEpochSecond(START + 2), 1);
+        assertEquals(2, buckets.size());
+        assertEquals(4, buckets.get(0).reserved());
+        assertEquals(1.0, buckets.get(0).utilization());
+        assertEquals(2, buckets.get(1).reserved());
+        assertEquals(0.5, buckets.get(1).utilization());
+        assertEquals(0, planner.forecast("c", Instant.ofEpochSecond(START), Instant.ofEpochSecond(START + 2), 1).size());
+    }
+}
@@ -0,0 +1,50 @@
+package it.zwets.sms.scheduler.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+class SchedulerCacheTest {
+
+    @Test
+    void testHitReturnsSameScheduler() {
+        SchedulerCache cache = new SchedulerCache(10);
+        Scheduler s1 = cache.get("10-20;30-40");
+        Scheduler s2 = cache.get("10-20;30-40");
+        assertSame(s1, s2);
+        assertEquals("10-20;30-40", s1.toString());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void testEvictsOldestWhenFull() {
+        SchedulerCache cache = new SchedulerCache(2);
+        Scheduler s1 = cache.get("10-20");
+        cache.get("30-40");
+        cache.get("50-60");
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertNotSame(s1, cache.get("10-20"));
+        assertEquals(4, cache.getMissCount());
+    }
+
+    @Test
+    void testZeroSizeDisablesCache() {
+        SchedulerCache cache = new SchedulerCache(0);
+        assertNotSame(cache.get("10-20"), cache.get("10-20"));
+        assertEquals(0, cache.size());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    void testInvalidScheduleNotCached() {
+        SchedulerCache cache = new SchedulerCache(10);
+        assertThrows(IllegalArgumentException.class, () -> cache.get("20-10"));
+        assertEquals(0, cache.size());
+    }
+}
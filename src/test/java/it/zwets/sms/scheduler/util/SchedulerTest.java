@@ -2,6 +2,8 @@ package it.zwets.sms.scheduler.util;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.time.Instant;
 
@@ -221,4 +223,72 @@ class SchedulerTest {
         assertEquals(Instant.ofEpochSecond(now + 40), schedule.getDeadlineInstant(Instant.ofEpochSecond(now + 25)));
     }
 
+    @Test
+    void testManyOverlapsMerged() {
+        Scheduler s = makeScheduler(50, 60, 10, 20, 15, 25, 40, 45, 25, 30, 44, 50, 70, 80);
+        assertEquals("10-30;40-60;70-80", s.toString());
+        assertEquals(3, s.getSlotCount());
+    }
+
+    @Test
+    void testContainedSlotsMerged() {
+        Scheduler s = makeScheduler(10, 100, 20, 30, 40, 50, 90, 110);
+        assertEquals("10-110", s.toString());
+    }
+
+    @Test
+    void testLookupsOnLargeSchedule() {
+        long[] times = new long[2000];
+        for (int i = 0; i < 1000; ++i) {
+            times[2*i] = 100 * i;
+            times[2*i+1] = 100 * i + 10;
+        }
+        Scheduler schedule = makeScheduler(times);
+        assertEquals(1000, schedule.getSlotCount());
+        assertEquals(Instant.ofEpochSecond(0), schedule.getFirstAvailableInstant(Instant.ofEpochSecond(-5)));
+        assertEquals(Instant.ofEpochSecond(50005), schedule.getFirstAvailableInstant(Instant.ofEpochSecond(50005)));
+        assertEquals(Instant.ofEpochSecond(50010), schedule.getDeadlineInstant(Instant.ofEpochSecond(50005)));
+        assertEquals(Instant.ofEpochSecond(50100), schedule.getFirstAvailableInstant(Instant.ofEpochSecond(50010)));
+        assertEquals(Instant.ofEpochSecond(50110), schedule.getDeadlineInstant(Instant.ofEpochSecond(50010)));
+        assertEquals(Instant.ofEpochSecond(99900), schedule.getFirstAvailableInstant(Instant.ofEpochSecond(99899)));
+        assertNull(schedule.getFirstAvailableInstant(Instant.ofEpochSecond(99910)));
+        assertNull(schedule.getDeadlineInstant(Instant.ofEpochSecond(99910)));
+    }
+
+    @Test
+    void testParseEmptyAndTrailingSemicolon() {
+        assertEquals(0, new Scheduler("").getSlotCount());
+        assertEquals("10-20;30-40", new Scheduler("30-40;10-20;").toString());
+    }
+
+    @Test
+    void testParseErrorGivesOffset() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> new Scheduler("10-20;30-40;50-x0"));
+        assertTrue(e.getMessage().contains("offset 15"));
+    }
+
+    @Test
+    void testJsonRoundTrip() {
+        Scheduler s = makeScheduler(30, 40, 10, 20);
+        assertEquals("[{\"from\":10,\"till\":20},{\"from\":30,\"till\":40}]", s.toJson());
+        assertEquals("10-20;30-40", Scheduler.parseJson(s.toJson()).toString());
+    }
+
+    @Test
+    void testParseJsonOrdersAndMerges() {
+        Scheduler s = Scheduler.parseJson("[ { \"till\": 40, \"from\": 30 }, { \"from\": 10, \"till\": 30 } ]");
+        assertEquals("10-40", s.toString());
+        assertEquals(0, Scheduler.parseJson("[]").getSlotCount());
+    }
+
+    @Test
+    void testParseJsonFailures() {
+        assertThrows(RuntimeException.class, () -> Scheduler.parseJson("[{\"from\":10}]"));
+        assertThrows(RuntimeException.class, () -> Scheduler.parseJson("[{\"from\":20,\"till\":10}]"));
+        assertThrows(RuntimeException.class, () -> Scheduler.parseJson("[{\"from\":10,\"till\":20,\"x\":1}]"));
+        assertThrows(RuntimeException.class, () -> Scheduler.parseJson("{\"from\":10,\"till\":20}"));
+        assertThrows(RuntimeException.class, () -> Scheduler.parseJson("[{\"from\":10,\"till\":20}] x"));
+    }
+
 }
@@ -0,0 +1,116 @@
+package it.zwets.sms.scheduler.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class SendRateShaperTest {
+
+    private static final Instant START = Instant.now().plusSeconds(3600).truncatedTo(ChronoUnit.SECONDS);
+
+    @Test
+    void testDisabled() {
+        SendRateShaper shaper = new SendRateShaper(0, 0, Map.of());
+        assertFalse(shaper.isEnabled());
+        assertSame(START, shaper.reserve("c", START, null));
+    }
+
+    @Test
+    void testClientRate() {
+        SendRateShaper shaper = new SendRateShaper(0, 10, Map.of());
+        assertTrue(shaper.isEnabled());
+        for (int i = 0; i < 100; ++i) {
+            Instant due = shaper.reserve("c", START, null);
+            assertEquals(START.plusMillis(100L * i), due);
+        }
+        assertEquals(START, shaper.reserve("other", START, null));
+    }
+
+    @Test
+    void testClientOverride() {
+        SendRateShaper shaper = new SendRateShaper(0, 10, Map.of("slow", 1, "free", 0));
+        assertEquals(START, shaper.reserve("slow", START, null));
+        assertEquals(START.plusSeconds(1), shaper.reserve("slow", START, null));
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(START, shaper.reserve("free", START, null));
+        }
+    }
+
+    @Test
+    void testGlobalRate() {
+        SendRateShaper shaper = new SendRateShaper(2, 0, Map.of());
+        assertEquals(START, shaper.reserve("a", START, null));
+        assertEquals(START.plusMillis(500), shaper.reserve("b", START, null));
+        assertEquals(START.plusSeconds(1), shaper.reserve("c", START, null));
+    }
+
+    @Test
+    void testSkipsFullRuns() {
+        SendRateShaper shaper = new SendRateShaper(3, 1, Map.of());
+        for (int i = 0; i < 3; ++i) {
+            assertEquals(START.plusSeconds(i), shaper.reserve("a", START, null));
+            assertEquals(START.plusSeconds(i), shaper.reserve("b", START, null));
+            assertEquals(START.plusSeconds(i), shaper.reserve("c", START, null));
+        }
+        // Both the global and the client budgets are full for the first three seconds
+        assertEquals(START.plusSeconds(3), shaper.reserve("d", START, null));
+        assertEquals(START.plusSeconds(3), shaper.reserve("a", START.plusSeconds(1), null));
+        assertEquals(START.plusSeconds(4), shaper.reserve("a", START, null));
+        assertNull(shaper.reserve("b", START, START.plusSeconds(3)));
+    }
+
+    @Test
+    void testDeadline() {
+        SendRateShaper shaper = new SendRateShaper(0, 1, Map.of());
+        Instant deadline = START.plusSeconds(2);
+        assertEquals(START, shaper.reserve("c", START, deadline));
+        assertEquals(START.plusSeconds(1), shaper.reserve("c", START, deadline));
+        assertNull(shaper.reserve("c", START, deadline));
+    }
+
+    @Test
+    void testRelease() {
+        SendRateShaper shaper = new SendRateShaper(0, 1, Map.of());
+        for (int i = 0; i < 3; ++i) {
+            assertEquals(START.plusSeconds(i), shaper.reserve("c", START, null));
+        }
+        shaper.release("c", START.plusSeconds(1));
+        assertEquals(START.plusSeconds(1), shaper.reserve("c", START, null));
+        assertEquals(START.plusSeconds(3), shaper.reserve("c", START, null));
+        shaper.release("c", START.plusSeconds(60)); // nothing reserved there
+        assertEquals(START.plusSeconds(4), shaper.reserve("c", START, null));
+    }
+
+    @Test
+    void testRestore() {
+        SendRateShaper shaper = new SendRateShaper(2, 0, Map.of());
+        shaper.restore("a", START);
+        shaper.restore("b", START);
+        shaper.restore("c", START);
+        assertEquals(START.plusSeconds(1), shaper.reserve("d", START, null));
+        assertEquals(3, shaper.forecast(null, START, START.plusSeconds(1), 1).get(0).reserved());
+
+        // Still full after one release, as restore overbooked it
+        shaper.release("a", START);
+        assertEquals(START.plusMillis(1500), shaper.reserve("d", START, null));
+        shaper.release("b", START);
+        assertEquals(START.plusMillis(500), shaper.reserve("d", START, null));
+    }
+
+    @Test
+    void testParseRates() {
+        assertTrue(SendRateShaper.parseRates("").isEmpty());
+        assertEquals(Map.of("a", 5, "b", 0), SendRateShaper.parseRates("a=5, b=0"));
+        assertThrows(IllegalArgumentException.class, () -> SendRateShaper.parseRates("a"));
+        assertThrows(IllegalArgumentException.class, () -> SendRateShaper.parseRates("a=-1"));
+    }
+}
@@ -2,6 +2,7 @@ package it.zwets.sms.scheduler.util;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.time.Instant;
 import java.util.Date;
@@ -107,4 +108,30 @@ class SlotTest {
         assertEquals(s1.from, s2.from);
         assertEquals(s1.till, s2.till);
     }
+
+    @Test
+    void testParseISOWithFractionAndLowerCase() {
+        Slot s = Slot.parse("2024-02-29t12:00:00.5+01:00/2024-02-29T12:00:01.999z");
+        assertEquals(Instant.parse("2024-02-29T11:00:00Z").getEpochSecond(), s.from);
+        assertEquals(Instant.parse("2024-02-29T12:00:01Z").getEpochSecond(), s.till);
+    }
+
+    @Test
+    void testFailParseInvalidDate() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> Slot.parse("2023-02-29T00:00Z/2023-03-01T00:00Z"));
+        assertTrue(e.getMessage().contains("offset 8"));
+    }
+
+    @Test
+    void testFailParseZeroSizeSlot() {
+        assertThrows(IllegalArgumentException.class, () -> Slot.parse("10-10"));
+    }
+
+    @Test
+    void testFailParseNotASlot() {
+        assertThrows(IllegalArgumentException.class, () -> Slot.parse("1020"));
+        assertThrows(IllegalArgumentException.class, () -> Slot.parse("-10-20"));
+        assertThrows(IllegalArgumentException.class, () -> Slot.parse("10-20 "));
+    }
 }